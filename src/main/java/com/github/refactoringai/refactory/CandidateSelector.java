@@ -0,0 +1,63 @@
+package com.github.refactoringai.refactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+
+/**
+ * Keeps the most probable refactoring units that qualify for a recommendation
+ * while scored units stream by, so a merge request never holds more than the
+ * units it could recommend.
+ */
+public class CandidateSelector {
+
+    private final int capacity;
+    private final Predicate<RefactoringUnit> qualifies;
+    /**
+     * The least probable candidate is at the head.
+     */
+    private final PriorityQueue<RefactoringUnit> candidates = new PriorityQueue<>(
+            Comparator.comparing((RefactoringUnit unit) -> unit.shouldRefactorProbability));
+
+    /**
+     * @param capacity  The maximum amount of candidates
+     * @param qualifies Whether a unit qualifies for a recommendation, e.g.
+     *                  {@link RecommendationPolicy#qualifies}
+     */
+    public CandidateSelector(int capacity, Predicate<RefactoringUnit> qualifies) {
+        this.capacity = capacity;
+        this.qualifies = qualifies;
+    }
+
+    /**
+     * Offers scored units as candidates. Units that are kept no longer refer to
+     * their feature matrix.
+     * 
+     * @param scoredUnits The scored units
+     * @return The units that are not, or no longer, candidates
+     */
+    public List<RefactoringUnit> offer(List<RefactoringUnit> scoredUnits) {
+        var rejected = new ArrayList<RefactoringUnit>();
+        for (var scoredUnit : scoredUnits) {
+            if (!qualifies.test(scoredUnit)) {
+                rejected.add(scoredUnit);
+                continue;
+            }
+            scoredUnit.detachFeatures();
+            candidates.add(scoredUnit);
+            if (candidates.size() > capacity) {
+                rejected.add(candidates.poll());
+            }
+        }
+        return rejected;
+    }
+
+    public List<RefactoringUnit> getCandidates() {
+        return new ArrayList<>(candidates);
+    }
+
+}
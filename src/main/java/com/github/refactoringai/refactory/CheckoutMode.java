@@ -0,0 +1,24 @@
+package com.github.refactoringai.refactory;
+
+/**
+ * How a merge request head is made available to metric extraction.
+ */
+public enum CheckoutMode {
+    /**
+     * Force checkout in the single working directory of the repository, merge
+     * requests of the same project are analysed one at a time.
+     */
+    FORCED,
+    /**
+     * Check out in a pooled working tree that shares the object store of the
+     * repository, merge requests of the same project are analysed concurrently.
+     */
+    WORKTREE,
+    /**
+     * Do not check out at all, only the changed files are read from the object
+     * database into a temporary directory. CK then only sees these files, so
+     * metrics that depend on resolving types of other files of the repository
+     * can differ from the other modes.
+     */
+    OBJECT_DATABASE
+}
@@ -0,0 +1,217 @@
+package com.github.refactoringai.refactory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.github.mauricioaniche.ck.CKClassResult;
+import com.github.mauricioaniche.ck.CKMethodResult;
+import com.google.common.hash.Hashing;
+
+/**
+ * The numeric metrics CK calculated for a class and its methods, in a compact
+ * form that can be stored in the {@link MetricCache}. The metrics are the
+ * numeric properties of {@link CKClassResult} and {@link CKMethodResult} under
+ * the names Jackson would give them, in the order of {@link #CLASS_PROPERTIES}
+ * and {@link #METHOD_PROPERTIES}.
+ */
+public class ClassMetrics {
+
+    static final String IS_INNER_CLASS_PROPERTY = "isInnerClass";
+    private static final String INNER_CLASS_TYPE = "innerclass";
+    /**
+     * The raw bits of {@link #MISSING}, a NaN payload CK does not produce.
+     */
+    private static final int MISSING_BITS = 0x7fc0_0a5e;
+    /**
+     * The value of a metric whose getter returned null. It differs from a metric
+     * that is NaN, the Jackson map the features were read from before left such a
+     * metric out.
+     */
+    static final float MISSING = Float.intBitsToFloat(MISSING_BITS);
+
+    @FunctionalInterface
+    private interface MetricGetter {
+        float get(Object ckResult) throws Throwable;
+    }
+
+    private static final TreeMap<String, MetricGetter> CLASS_GETTERS = numericGetters(CKClassResult.class);
+    private static final TreeMap<String, MetricGetter> METHOD_GETTERS = numericGetters(CKMethodResult.class);
+
+    static {
+        CLASS_GETTERS.put(IS_INNER_CLASS_PROPERTY,
+                result -> INNER_CLASS_TYPE.equals(((CKClassResult) result).getType()) ? 1f : 0f);
+    }
+
+    static final List<String> CLASS_PROPERTIES = List.copyOf(CLASS_GETTERS.keySet());
+    static final List<String> METHOD_PROPERTIES = List.copyOf(METHOD_GETTERS.keySet());
+    private static final MetricGetter[] CLASS_GETTERS_IN_ORDER = CLASS_GETTERS.values()
+            .toArray(MetricGetter[]::new);
+    private static final MetricGetter[] METHOD_GETTERS_IN_ORDER = METHOD_GETTERS.values()
+            .toArray(MetricGetter[]::new);
+
+    /**
+     * Changes when the properties change, for example with another CK version, so
+     * stored metrics of another layout are not used.
+     */
+    static final String SCHEMA = Hashing.murmur3_32_fixed()
+            .hashUnencodedChars(String.join(",", CLASS_PROPERTIES) + ";" + String.join(",", METHOD_PROPERTIES))
+            .toString();
+
+    public static class MethodMetrics {
+        public final String methodName;
+        public final int startLine;
+        public final int loc;
+        public final float[] values;
+
+        MethodMetrics(String methodName, int startLine, int loc, float[] values) {
+            this.methodName = methodName;
+            this.startLine = startLine;
+            this.loc = loc;
+            this.values = values;
+        }
+    }
+
+    public final String className;
+    public final float[] values;
+    public final List<MethodMetrics> methods;
+
+    ClassMetrics(String className, float[] values, List<MethodMetrics> methods) {
+        this.className = className;
+        this.values = values;
+        this.methods = methods;
+    }
+
+    public static ClassMetrics of(CKClassResult ckClassResult) {
+        var methods = new ArrayList<MethodMetrics>();
+        for (CKMethodResult ckMethodResult : ckClassResult.getMethods()) {
+            methods.add(new MethodMetrics(ckMethodResult.getMethodName(), ckMethodResult.getStartLine(),
+                    ckMethodResult.getLoc(), read(METHOD_GETTERS_IN_ORDER, ckMethodResult)));
+        }
+        return new ClassMetrics(ckClassResult.getClassName(), read(CLASS_GETTERS_IN_ORDER, ckClassResult),
+                Collections.unmodifiableList(methods));
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(className);
+        writeValues(out, values);
+        out.writeInt(methods.size());
+        for (MethodMetrics method : methods) {
+            out.writeUTF(method.methodName);
+            out.writeInt(method.startLine);
+            out.writeInt(method.loc);
+            writeValues(out, method.values);
+        }
+    }
+
+    public static ClassMetrics readFrom(DataInput in) throws IOException {
+        var className = in.readUTF();
+        var values = readValues(in);
+        var methodsN = in.readInt();
+        var methods = new ArrayList<MethodMetrics>(methodsN);
+        for (int i = 0; i < methodsN; i++) {
+            methods.add(new MethodMetrics(in.readUTF(), in.readInt(), in.readInt(), readValues(in)));
+        }
+        return new ClassMetrics(className, values, Collections.unmodifiableList(methods));
+    }
+
+    static boolean isMissing(float value) {
+        return Float.floatToRawIntBits(value) == MISSING_BITS;
+    }
+
+    /**
+     * Writes the raw bits, {@link DataOutput#writeFloat} would turn
+     * {@link #MISSING} into an ordinary NaN.
+     */
+    private static void writeValues(DataOutput out, float[] values) throws IOException {
+        out.writeShort(values.length);
+        for (float value : values) {
+            out.writeInt(Float.floatToRawIntBits(value));
+        }
+    }
+
+    private static float[] readValues(DataInput in) throws IOException {
+        var values = new float[in.readShort()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Float.intBitsToFloat(in.readInt());
+        }
+        return values;
+    }
+
+    private static float[] read(MetricGetter[] getters, Object ckResult) {
+        var values = new float[getters.length];
+        try {
+            for (int i = 0; i < getters.length; i++) {
+                values[i] = getters[i].get(ckResult);
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not read the metrics of " + ckResult, t);
+        }
+        return values;
+    }
+
+    /**
+     * Resolves the public numeric getters once to method handles. A getter that
+     * returns null gives {@link #MISSING}.
+     */
+    private static TreeMap<String, MetricGetter> numericGetters(Class<?> ckResultClass) {
+        var lookup = MethodHandles.publicLookup();
+        TreeMap<String, MetricGetter> getters = new TreeMap<>();
+        for (Method method : ckResultClass.getMethods()) {
+            var propertyName = propertyName(method);
+            if (propertyName == null || Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0) {
+                continue;
+            }
+            var returnType = method.getReturnType();
+            MethodHandle handle;
+            try {
+                handle = lookup.unreflect(method);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            if (returnType.isPrimitive() && returnType != boolean.class && returnType != char.class
+                    && returnType != void.class) {
+                var asDouble = handle.asType(MethodType.methodType(double.class, Object.class));
+                getters.put(propertyName, result -> (float) (double) asDouble.invokeExact(result));
+            } else if (Number.class.isAssignableFrom(returnType)) {
+                var asNumber = handle.asType(MethodType.methodType(Number.class, Object.class));
+                getters.put(propertyName, result -> {
+                    var value = (Number) asNumber.invokeExact(result);
+                    return value == null ? MISSING : value.floatValue();
+                });
+            }
+        }
+        return getters;
+    }
+
+    /**
+     * The name Jackson gives the property of a getter, the leading upper case
+     * characters are lower cased.
+     */
+    private static String propertyName(Method method) {
+        var name = method.getName();
+        String property;
+        if (name.startsWith("get") && name.length() > 3 && !name.equals("getClass")) {
+            property = name.substring(3);
+        } else if (name.startsWith("is") && name.length() > 2) {
+            property = name.substring(2);
+        } else {
+            return null;
+        }
+        var chars = property.toCharArray();
+        for (int i = 0; i < chars.length && Character.isUpperCase(chars[i]); i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.github.refactoringai.refactory;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * The lines of a file a unified diff shows. GitLab only accepts discussions on
+ * those lines: added lines by their new line number, unchanged lines by both
+ * their old and new line number.
+ */
+public class DiffHunks {
+
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+)(?:,\\d+)? \\+(\\d+)(?:,\\d+)? @@.*");
+
+    /**
+     * A line of the diff a discussion can be placed on.
+     */
+    public static class Position {
+        private final Integer oldLine;
+        private final int newLine;
+
+        Position(Integer oldLine, int newLine) {
+            this.oldLine = oldLine;
+            this.newLine = newLine;
+        }
+
+        /**
+         * @return The old line number, null for added lines
+         */
+        public Integer getOldLine() {
+            return oldLine;
+        }
+
+        public int getNewLine() {
+            return newLine;
+        }
+    }
+
+    private final BitSet addedLines = new BitSet();
+    private final Map<Integer, Integer> unchangedLines = new HashMap<>();
+
+    private DiffHunks() {
+    }
+
+    /**
+     * @param diff The unified diff of a file as GitLab returns it
+     * @return The hunks, empty if the diff was left out, for example because it
+     *         was too large
+     */
+    public static Optional<DiffHunks> parse(String diff) {
+        if (diff == null || diff.isBlank()) {
+            return Optional.empty();
+        }
+        var hunks = new DiffHunks();
+        int oldLine = 0;
+        int newLine = 0;
+        var inHunk = false;
+        for (String line : diff.split("\n", -1)) {
+            var header = HUNK_HEADER.matcher(line);
+            if (header.matches()) {
+                oldLine = Integer.parseInt(header.group(1));
+                newLine = Integer.parseInt(header.group(2));
+                inHunk = true;
+            } else if (!inHunk || line.isEmpty()) {
+                continue;
+            } else if (line.charAt(0) == '+') {
+                hunks.addedLines.set(newLine++);
+            } else if (line.charAt(0) == '-') {
+                oldLine++;
+            } else if (line.charAt(0) == ' ') {
+                hunks.unchangedLines.put(newLine++, oldLine++);
+            }
+        }
+        return Optional.of(hunks);
+    }
+
+    /**
+     * @param startLine The first line of a span in the new file
+     * @param endLine   The last line of the span
+     * @return Whether a line in the span was added
+     */
+    public boolean overlapsChange(int startLine, int endLine) {
+        var nextAdded = addedLines.nextSetBit(Math.max(startLine, 0));
+        return nextAdded != -1 && nextAdded <= endLine;
+    }
+
+    /**
+     * Finds a line to place a discussion about a span on. The preferred line is
+     * used when the diff shows it, otherwise the first added line of the span.
+     * 
+     * @param preferredLine The line the discussion should be placed on
+     * @param startLine     The first line of the span in the new file
+     * @param endLine       The last line of the span
+     * @return The position, empty if the diff shows no line of the span
+     */
+    public Optional<Position> positionFor(int preferredLine, int startLine, int endLine) {
+        if (addedLines.get(preferredLine)) {
+            return Optional.of(new Position(null, preferredLine));
+        }
+        var unchangedOldLine = unchangedLines.get(preferredLine);
+        if (unchangedOldLine != null) {
+            return Optional.of(new Position(unchangedOldLine, preferredLine));
+        }
+        if (overlapsChange(startLine, endLine)) {
+            return Optional.of(new Position(null, addedLines.nextSetBit(Math.max(startLine, 0))));
+        }
+        return Optional.empty();
+    }
+
+}
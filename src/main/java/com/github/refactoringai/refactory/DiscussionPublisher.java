@@ -0,0 +1,194 @@
+package com.github.refactoringai.refactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+
+import com.github.refactoringai.refactory.entities.PendingDiscussion;
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+import com.github.refactoringai.refactory.entities.RefactoryMergeRequest;
+import com.google.common.util.concurrent.Striped;
+
+import org.gitlab4j.api.GitLabApiException;
+import org.gitlab4j.api.models.Discussion;
+import org.jboss.logging.Logger;
+
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+
+/**
+ * Drains the pending_discussion outbox. GitLab is called outside of any
+ * transaction, every placed discussion is recorded in its own short
+ * transaction. A pending discussion that was attempted but not recorded, e.g.
+ * because of a crash, is looked up on the merge request before it is placed
+ * again.
+ */
+@ApplicationScoped
+public class DiscussionPublisher {
+
+    private static final Logger LOG = Logger.getLogger(DiscussionPublisher.class);
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_UNPROCESSABLE_ENTITY = 422;
+
+    @Inject
+    GitLab gitLab;
+
+    @Inject
+    RecommendationPolicy recommendationPolicy;
+
+    private final Striped<Lock> mergeRequestLocks = Striped.lock(64);
+
+    /**
+     * The lock to hold while the outbox of a merge request is written or drained.
+     */
+    public Lock lockFor(RefactoryMergeRequest refactoryMergeRequest) {
+        return mergeRequestLocks.get(refactoryMergeRequest.id);
+    }
+
+    /**
+     * Places the pending discussions of a merge request until
+     * {@code amount.of.recommendations} recommendations are placed on it, the
+     * remaining pending discussions are dropped. Discussions GitLab refuses are
+     * dropped, on other failures draining stops and the rest is retried by the
+     * scheduled drain.
+     *
+     * @param refactoryMergeRequest The merge request to drain the outbox of
+     * @return The created discussions
+     */
+    public List<Discussion> publish(RefactoryMergeRequest refactoryMergeRequest) {
+        var lock = lockFor(refactoryMergeRequest);
+        lock.lock();
+        try {
+            return drain(refactoryMergeRequest.id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drains what is left in the outbox, e.g. after a crash or when GitLab failed
+     * or was not reachable.
+     */
+    @Scheduled(every = "${outbox.drain.interval:5m}", concurrentExecution = ConcurrentExecution.SKIP)
+    void drainOutbox() {
+        for (Long refactoryMergeRequestId : pendingMergeRequestIds()) {
+            var lock = mergeRequestLocks.get(refactoryMergeRequestId);
+            lock.lock();
+            try {
+                var discussions = drain(refactoryMergeRequestId);
+                if (!discussions.isEmpty()) {
+                    LOG.infof("Created %d pending merge request discussions from the outbox", discussions.size());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private List<Discussion> drain(Long refactoryMergeRequestId) {
+        var resultingDiscussions = new ArrayList<Discussion>();
+        List<PendingDiscussion> pendingDiscussions = pendingDiscussions(refactoryMergeRequestId);
+        if (pendingDiscussions.isEmpty()) {
+            return resultingDiscussions;
+        }
+        var refactoryMergeRequest = pendingDiscussions.get(0).refactoryMergeRequest;
+        var projectId = refactoryMergeRequest.project.gitlabId;
+        var mergeRequestIid = refactoryMergeRequest.mergeRequestIid;
+        long recommended = countRecommended(refactoryMergeRequestId);
+
+        for (var i = 0; i < pendingDiscussions.size(); i++) {
+            var pendingDiscussion = pendingDiscussions.get(i);
+            // We add until we have successfully posted amountOfRecommendations discussions.
+            if (recommended >= recommendationPolicy.getAmountOfRecommendations()) {
+                discard(pendingDiscussions.subList(i, pendingDiscussions.size()));
+                break;
+            }
+            Optional<Discussion> placedBefore = Optional.empty();
+            if (pendingDiscussion.attempted) {
+                try {
+                    placedBefore = gitLab.findDiscussion(projectId, mergeRequestIid, pendingDiscussion.body);
+                } catch (GitLabApiException glae) {
+                    LOG.warnf("Cannot look up discussion %s due to %s, retrying on the next drain", pendingDiscussion,
+                            glae.getMessage());
+                    break;
+                }
+            } else {
+                markAttempted(pendingDiscussion);
+            }
+            try {
+                if (placedBefore.isEmpty()) {
+                    resultingDiscussions.add(gitLab.createDiscussion(projectId, mergeRequestIid, pendingDiscussion));
+                }
+                recordPlaced(pendingDiscussion);
+                recommended++;
+            } catch (GitLabApiException glae) {
+                if (!isRefused(glae)) {
+                    // Sometimes a 500 is given by random or GitLab is not reachable, the
+                    // discussion may have been placed anyway so it is looked up on the retry
+                    LOG.warnf("Cannot add discussion %s due to %s, retrying on the next drain", pendingDiscussion,
+                            glae.getMessage());
+                    LOG.debugf(glae, "");
+                    break;
+                }
+                // Gitlab can complain if we recommend stuff that is not in the diff, we don't
+                // want to stop recommending if this happens
+                LOG.infof("Cannot add discussion %s due to %s", pendingDiscussion, glae.getMessage());
+                LOG.debugf(glae, "");
+                discard(List.of(pendingDiscussion));
+            }
+        }
+        return resultingDiscussions;
+    }
+
+    /**
+     * Whether GitLab refused the discussion itself, e.g. because its position is
+     * not in the diff. Placing it again would fail again.
+     */
+    private static boolean isRefused(GitLabApiException glae) {
+        return glae.getHttpStatus() == HTTP_BAD_REQUEST || glae.getHttpStatus() == HTTP_UNPROCESSABLE_ENTITY;
+    }
+
+    @Transactional
+    List<Long> pendingMergeRequestIds() {
+        return PendingDiscussion.getEntityManager()
+                .createQuery("select distinct pd.refactoryMergeRequest.id from PendingDiscussion pd", Long.class)
+                .getResultList();
+    }
+
+    @Transactional
+    List<PendingDiscussion> pendingDiscussions(Long refactoryMergeRequestId) {
+        return PendingDiscussion.list("refactoryMergeRequest.id = ?1 order by rank", refactoryMergeRequestId);
+    }
+
+    @Transactional
+    long countRecommended(Long refactoryMergeRequestId) {
+        return RefactoringUnit.count("refactoryMergeRequest.id = ?1 and wasRecommended = true",
+                refactoryMergeRequestId);
+    }
+
+    @Transactional
+    void markAttempted(PendingDiscussion pendingDiscussion) {
+        PendingDiscussion.update("attempted = true where id = ?1", pendingDiscussion.id);
+        pendingDiscussion.attempted = true;
+    }
+
+    @Transactional
+    void recordPlaced(PendingDiscussion pendingDiscussion) {
+        RefactoringUnit.update("wasRecommended = true where id = ?1", pendingDiscussion.refactoringUnit.id);
+        PendingDiscussion.delete("id", pendingDiscussion.id);
+        pendingDiscussion.refactoringUnit.recommendationWasPlaced();
+    }
+
+    @Transactional
+    void discard(List<PendingDiscussion> pendingDiscussions) {
+        PendingDiscussion.delete("id in ?1",
+                pendingDiscussions.stream().map(pendingDiscussion -> pendingDiscussion.id).collect(Collectors.toList()));
+    }
+
+}
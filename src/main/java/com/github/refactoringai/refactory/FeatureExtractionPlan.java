@@ -0,0 +1,131 @@
+package com.github.refactoringai.refactory;
+
+import java.util.List;
+import java.util.OptionalInt;
+
+import com.github.refactoringai.refactory.ClassMetrics.MethodMetrics;
+import com.google.common.base.Preconditions;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jboss.logging.Logger;
+
+/**
+ * Resolves the feature names of a model once to the positions of the metrics
+ * in {@link ClassMetrics} that provide them, so a row of features can be filled
+ * by copying values.
+ */
+public class FeatureExtractionPlan {
+
+    private static final Logger LOG = Logger.getLogger(FeatureExtractionPlan.class);
+    private static final List<String> PREFIXES_TO_REMOVE = List.of("class", "method");
+    private static final int NOT_AVAILABLE = -1;
+
+    private final List<String> featureNames;
+    private final int[] classIndices;
+    private final int[] methodIndices;
+    private final boolean classRowsSupported;
+    private final boolean methodRowsSupported;
+
+    private FeatureExtractionPlan(List<String> featureNames) {
+        this.featureNames = featureNames;
+        var featureNamesN = featureNames.size();
+        classIndices = new int[featureNamesN];
+        methodIndices = new int[featureNamesN];
+        var allInClass = true;
+        var allInClassOrMethod = true;
+        for (int i = 0; i < featureNamesN; i++) {
+            var ckFeatureName = changeMachineLearningFeatureNameToCKFeatureName(featureNames.get(i));
+            classIndices[i] = ClassMetrics.CLASS_PROPERTIES.indexOf(ckFeatureName);
+            methodIndices[i] = ClassMetrics.METHOD_PROPERTIES.indexOf(ckFeatureName);
+            allInClass &= classIndices[i] != NOT_AVAILABLE;
+            allInClassOrMethod &= classIndices[i] != NOT_AVAILABLE || methodIndices[i] != NOT_AVAILABLE;
+            if (classIndices[i] == NOT_AVAILABLE && methodIndices[i] == NOT_AVAILABLE) {
+                LOG.debugf("Samples not compatible due to lacking of feature %s", featureNames.get(i));
+            }
+        }
+        classRowsSupported = allInClass;
+        methodRowsSupported = allInClassOrMethod;
+    }
+
+    public static FeatureExtractionPlan compile(List<String> featureNames) {
+        Preconditions.checkNotNull(featureNames, "FeatureNames was null when compiling a feature extraction plan.");
+        return new FeatureExtractionPlan(List.copyOf(featureNames));
+    }
+
+    /**
+     * Writes the features of a class to a new row of the feature matrix.
+     * 
+     * @return The index of the row, empty if a feature was missing
+     */
+    public OptionalInt addClassRow(FeatureMatrix features, ClassMetrics classMetrics) {
+        if (!classRowsSupported) {
+            return OptionalInt.empty();
+        }
+        var row = features.addRow();
+        for (int i = 0; i < classIndices.length; i++) {
+            if (!set(features, row, i, classMetrics.values[classIndices[i]])) {
+                return OptionalInt.empty();
+            }
+        }
+        return OptionalInt.of(row);
+    }
+
+    /**
+     * Writes the features of a method to a new row of the feature matrix, the
+     * features the method does not have are taken from its class.
+     * 
+     * @return The index of the row, empty if a feature was missing
+     */
+    public OptionalInt addMethodRow(FeatureMatrix features, ClassMetrics classMetrics, MethodMetrics methodMetrics) {
+        if (!methodRowsSupported) {
+            return OptionalInt.empty();
+        }
+        var row = features.addRow();
+        for (int i = 0; i < methodIndices.length; i++) {
+            var value = methodIndices[i] != NOT_AVAILABLE ? methodMetrics.values[methodIndices[i]]
+                    : ClassMetrics.MISSING;
+            if (ClassMetrics.isMissing(value) && classIndices[i] != NOT_AVAILABLE) {
+                value = classMetrics.values[classIndices[i]];
+            }
+            if (!set(features, row, i, value)) {
+                return OptionalInt.empty();
+            }
+        }
+        return OptionalInt.of(row);
+    }
+
+    /**
+     * @return False if the value is missing, the row is removed then
+     */
+    private boolean set(FeatureMatrix features, int row, int column, float value) {
+        if (ClassMetrics.isMissing(value)) {
+            LOG.debugf("Sample not compatible due to lacking of feature %s. skipping sample",
+                    featureNames.get(column));
+            features.removeLastRow();
+            return false;
+        }
+        features.set(row, column, value);
+        return true;
+    }
+
+    public List<String> getFeatureNames() {
+        return featureNames;
+    }
+
+    private static String changeMachineLearningFeatureNameToCKFeatureName(String featureName) {
+        for (String prefix : PREFIXES_TO_REMOVE) {
+            featureName = StringUtils.removeStart(featureName, prefix);
+        }
+
+        if (featureName.equals("LCC")) {
+            return "looseClassCohesion";
+        } else if (featureName.equals("TCC")) {
+            return "tightClassCohesion";
+        } else if (featureName.equals("SubClassesQty")) {
+            return "innerClassesQty";
+        }
+
+        return StringUtils.uncapitalize(featureName);
+    }
+
+}
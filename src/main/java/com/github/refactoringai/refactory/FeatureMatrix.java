@@ -0,0 +1,120 @@
+package com.github.refactoringai.refactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+import com.google.common.base.Preconditions;
+
+/**
+ * Row major matrix of features backed by one direct buffer. Rows are filled in
+ * place while the metrics are extracted and the buffer is handed to ONNX
+ * Runtime without copying.
+ */
+public class FeatureMatrix {
+
+    private static final int INITIAL_ROW_CAPACITY = 64;
+
+    private final int columns;
+    private FloatBuffer buffer;
+    private int rows;
+
+    public FeatureMatrix(int columns) {
+        this(columns, INITIAL_ROW_CAPACITY);
+    }
+
+    public FeatureMatrix(int columns, int rowCapacity) {
+        Preconditions.checkArgument(columns > 0, "A feature matrix needs at least one column");
+        this.columns = columns;
+        this.buffer = allocate(Math.max(rowCapacity, 1) * columns);
+    }
+
+    /**
+     * Copies the feature rows of the refactoring units into one matrix.
+     * 
+     * @param refactoringUnits The units, all with rows of the same width
+     * @return The matrix with a row per unit in the order of the units
+     */
+    public static FeatureMatrix gather(List<RefactoringUnit> refactoringUnits) {
+        Preconditions.checkArgument(!refactoringUnits.isEmpty(), "No refactoring units to gather");
+        var columns = refactoringUnits.get(0).features.getColumns();
+        var matrix = new FeatureMatrix(columns, refactoringUnits.size());
+        for (var refactoringUnit : refactoringUnits) {
+            Preconditions.checkArgument(refactoringUnit.features.getColumns() == columns,
+                    "Refactoring units have feature rows of different widths");
+            var row = matrix.addRow();
+            refactoringUnit.features.copyRow(refactoringUnit.featureRow, matrix.buffer, row * columns);
+        }
+        return matrix;
+    }
+
+    /**
+     * Appends a row of zeros.
+     * 
+     * @return The index of the new row
+     */
+    public int addRow() {
+        if ((rows + 1) * columns > buffer.capacity()) {
+            var grown = allocate(buffer.capacity() * 2);
+            grown.put(buffer.duplicate().clear().limit(rows * columns));
+            buffer = grown;
+        }
+        return rows++;
+    }
+
+    /**
+     * Removes the last row, used when extraction of a row has to be abandoned.
+     */
+    public void removeLastRow() {
+        Preconditions.checkState(rows > 0, "The feature matrix has no rows");
+        rows--;
+        for (int i = rows * columns; i < (rows + 1) * columns; i++) {
+            buffer.put(i, 0f);
+        }
+    }
+
+    public void set(int row, int column, float value) {
+        buffer.put(row * columns + column, value);
+    }
+
+    public float get(int row, int column) {
+        return buffer.get(row * columns + column);
+    }
+
+    public float[] getRow(int row) {
+        var values = new float[columns];
+        buffer.duplicate().position(row * columns).get(values);
+        return values;
+    }
+
+    private void copyRow(int row, FloatBuffer target, int targetIndex) {
+        var source = buffer.duplicate().position(row * columns).limit((row + 1) * columns);
+        target.duplicate().position(targetIndex).put(source);
+    }
+
+    /**
+     * @return A view of the filled rows, positioned at the first value
+     */
+    public FloatBuffer asBuffer() {
+        return buffer.duplicate().clear().limit(rows * columns);
+    }
+
+    public long[] getShape() {
+        return new long[] { rows, columns };
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    private static FloatBuffer allocate(int values) {
+        return ByteBuffer.allocateDirect(values * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+}
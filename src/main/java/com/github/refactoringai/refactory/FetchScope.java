@@ -0,0 +1,15 @@
+package com.github.refactoringai.refactory;
+
+/**
+ * What is fetched from origin before a merge request is checked out.
+ */
+public enum FetchScope {
+    /**
+     * All branches of origin.
+     */
+    ALL,
+    /**
+     * Only {@code refs/merge-requests/<iid>/head} of the merge request.
+     */
+    MERGE_REQUEST
+}
@@ -4,15 +4,25 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
+import com.github.refactoringai.refactory.entities.PendingDiscussion;
 import com.github.refactoringai.refactory.entities.RefactoringUnit;
 import com.github.refactoringai.refactory.entities.RefactoryMergeRequest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.commons.math3.stat.StatUtils;
 import org.apache.http.client.utils.URIBuilder;
@@ -24,7 +34,6 @@ import org.gitlab4j.api.GitLabApiException;
 import org.gitlab4j.api.MergeRequestApi;
 import org.gitlab4j.api.ProjectApi;
 import org.gitlab4j.api.models.Diff;
-import org.gitlab4j.api.models.DiffRef;
 import org.gitlab4j.api.models.Discussion;
 import org.gitlab4j.api.models.MergeRequest;
 import org.gitlab4j.api.models.MergeRequestFilter;
@@ -38,14 +47,16 @@ public class GitLab {
 
     private static final Logger LOG = Logger.getLogger(GitLab.class);
     private static final String SURVALYZER_URL_VAR_IDENTIFIER = "urlVar%02d";
+    private static final String EXTRACT_METHOD_REFACTORING_TYPE = "Extract Method";
 
     private final String surveyBaseUrl;
-    private final Integer amountOfRecommendations;
-    private final Float minimumCertaintyToRecommendThreshold;
+
+    private final RecommendationPolicy recommendationPolicy;
 
     private final MergeRequestApi mergeRequestApi;
     private final ProjectApi projectApi;
     private final DiscussionsApi discussionsApi;
+    private final ExecutorService detailFetchExecutor;
 
     /**
      * @param recommendationTextTemplate
@@ -57,68 +68,74 @@ public class GitLab {
     // TODO this is probably not the best way of injecting these values, i need to
     // learn more about the framework probably to do it more idiomatic
     public GitLab(GitLabApi gitlabApi,
-            @ConfigProperty(name = "amount.of.recommendations", defaultValue = "2147483647") Integer amountOfRecommendations,
             @ConfigProperty(name = "survey.base.url") String surveyBaseUrl,
-            @ConfigProperty(name = "min.certainty.recommend.threshold", defaultValue = "0.5") Float minimumCertaintyToRecommendThreshold) {
+            RecommendationPolicy recommendationPolicy,
+            @ConfigProperty(name = "gitlab.detail.fetch.concurrency", defaultValue = "4") Integer detailFetchConcurrency) {
         this.mergeRequestApi = gitlabApi.getMergeRequestApi();
         this.projectApi = gitlabApi.getProjectApi();
         this.discussionsApi = gitlabApi.getDiscussionsApi();
-        this.amountOfRecommendations = amountOfRecommendations;
         this.surveyBaseUrl = surveyBaseUrl;
-        this.minimumCertaintyToRecommendThreshold = minimumCertaintyToRecommendThreshold;
+        this.recommendationPolicy = recommendationPolicy;
+        this.detailFetchExecutor = Executors.newFixedThreadPool(detailFetchConcurrency,
+                new ThreadFactoryBuilder().setNameFormat("gitlab-detail-fetch-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    void stopDetailFetchExecutor() {
+        detailFetchExecutor.shutdownNow();
     }
 
     /**
-     * Creates discussions on the new paths of the merge request diffs. discussions
-     * for all passed refactors.
+     * Selects the refactoring units to recommend, in the order in which they should
+     * be placed.
      * 
-     * @param projectPath      The GitLab project on which to operate.
-     * @param mergeRequestId   the id of the merge request to operate on.
-     * @param refactoringUnits The refactors for which to create recommendations
-     * @return The created Discussions
-     * @throws GitLabApiException    If fetching information or placing discussions
-     *                               fails
-     * @throws URISyntaxException
-     * @throws MalformedURLException
+     * @param refactoringUnits The scored refactoring units of a merge request
+     * @return The units that should be refactored with enough certainty and can be
+     *         placed on the diff, the most certain first
      */
-    public List<Discussion> createDiscussionsFromRefactors(final MergeRequest mergeRequest,
-            final List<RefactoringUnit> refactoringUnits)
-            throws GitLabApiException, MalformedURLException, URISyntaxException {
-
+    public List<RefactoringUnit> selectRecommendable(final List<RefactoringUnit> refactoringUnits) {
         LOG.infof("The following refactors are candidates to suggest: %s", refactoringUnits);
-        List<RefactoringUnit> toRecommend = refactoringUnits.stream()
-                .filter(refactoringUnit -> refactoringUnit.shouldRefactor)
-                .filter(refactoringUnit -> refactoringUnit.shouldRefactorProbability >= minimumCertaintyToRecommendThreshold)
-                .sorted().collect(Collectors.toList());
+        List<RefactoringUnit> toRecommend = refactoringUnits.stream().filter(recommendationPolicy::qualifies).sorted()
+                .collect(Collectors.toList());
         LOG.infof("The following refactors adhere to the requirements of suggestion: %s", toRecommend);
-        var resultingDiscussions = new ArrayList<Discussion>();
-        int addedAmount = 0;
+        return toRecommend;
+    }
 
-        for (RefactoringUnit refactoringUnit : toRecommend) {
-            // We add until we have successfully posted amountOfRecommendations discussions.
-            if (addedAmount == amountOfRecommendations) {
-                break;
-            }
-            try {
-                var discussion = createRefactorDiscussion(mergeRequest.getProjectId(), mergeRequest.getIid(),
-                        refactoringUnit, mergeRequest.getDiffRefs());
-                resultingDiscussions.add(discussion);
-                refactoringUnit.recommendationWasPlaced();
-                addedAmount++;
-                // Gitlab can complain if we recommend stuff that is not in the diff, or
-                // sometimes a 500 is given by random, we don't want to stop recommending if
-                // this happens
-                // so we catch this exception
-            } catch (GitLabApiException glae) {
-                LOG.infof("Cannot add discussion with refactoringUnit %s due to %s", refactoringUnit,
-                        glae.getMessage());
-                LOG.debugf(glae, "");
-            }
-        }
-        LOG.infof("The following refactors were succesfully suggested: %s", toRecommend.stream()
-                .filter(refactoringUnit -> refactoringUnit.wasRecommended).collect(Collectors.toList()));
+    /**
+     * Places a pending recommendation as a discussion on the merge request.
+     * 
+     * @param projectIdOrPath   The GitLab project of the merge request
+     * @param mergeRequestIid   The iid of the merge request
+     * @param pendingDiscussion The recommendation to place
+     * @return The created discussion
+     * @throws GitLabApiException If GitLab refuses the discussion, e.g. when its
+     *                            line is not in the diff
+     */
+    public Discussion createDiscussion(Object projectIdOrPath, Long mergeRequestIid,
+            PendingDiscussion pendingDiscussion) throws GitLabApiException {
+        var position = new Position();
+        position.setBaseSha(pendingDiscussion.baseSha);
+        position.setHeadSha(pendingDiscussion.headSha);
+        position.setStartSha(pendingDiscussion.startSha);
+        position.setPositionType(PositionType.TEXT);
+        position.setNewLine(pendingDiscussion.newLine);
+        position.setOldLine(pendingDiscussion.oldLine);
+        position.setOldPath(pendingDiscussion.oldPath);
+        position.setNewPath(pendingDiscussion.newPath);
+        return discussionsApi.createMergeRequestDiscussion(projectIdOrPath, mergeRequestIid, pendingDiscussion.body,
+                null, null, position);
+    }
 
-        return resultingDiscussions;
+    /**
+     * Looks up a discussion on the merge request that starts with a note with the
+     * given body.
+     */
+    public Optional<Discussion> findDiscussion(Object projectIdOrPath, Long mergeRequestIid, String body)
+            throws GitLabApiException {
+        return discussionsApi.getMergeRequestDiscussions(projectIdOrPath, mergeRequestIid).stream()
+                .filter(discussion -> discussion.getNotes() != null && !discussion.getNotes().isEmpty()
+                        && body.equals(discussion.getNotes().get(0).getBody()))
+                .findFirst();
     }
 
     public List<Diff> diffsForProjectIdAndMergeRequestIid(Long projectId, Long mergeRequestIid)
@@ -151,6 +168,14 @@ public class GitLab {
 
     public String generateDescription(RefactoringUnit predictionResult)
             throws MalformedURLException, URISyntaxException {
+        var refactoringType = predictionResult.model == null ? null : predictionResult.model.refactoringType;
+        if (refactoringType != null && !refactoringType.equalsIgnoreCase(EXTRACT_METHOD_REFACTORING_TYPE)) {
+            return String.format(
+                    "Consider applying the refactoring \"%s\" to \"%s\"."
+                            + " It would be of great help if you could help evaluate these recommendations:"
+                            + "[please consider filling in this survey.](%s)",
+                    refactoringType, predictionResult.unitName, generateSurveyUrl(predictionResult));
+        }
         return String.format(
                 "Consider extracting part of the method \"%s\" to a separate method."
                         + " ([More info](https://refactoring.com/catalog/extractFunction.html))."
@@ -164,24 +189,66 @@ public class GitLab {
                 .addParameter(survalyzerUrlVariable(2), predictionResult.id.toString()).build().toURL();
     }
 
-    public List<MergeRequest> getOpenedMergeRequests(Project project) throws GitLabApiException {
+    /**
+     * Lists the opened merge requests of a project. GitLab does not include the
+     * diff refs in a listing, use {@link #withDiffRefs(Long, List)} for the merge
+     * requests that turn out to be relevant.
+     * 
+     * @param project      The project to list the merge requests of
+     * @param updatedAfter If present only merge requests updated after it are
+     *                     listed
+     * @return The merge requests without diff refs
+     * @throws GitLabApiException If listing fails
+     */
+    public List<MergeRequest> getOpenedMergeRequests(Project project, Optional<Date> updatedAfter)
+            throws GitLabApiException {
         var filter = new MergeRequestFilter();
         filter.setState(MergeRequestState.OPENED);
-        Long projectId = project.getId();
-        filter.setProjectId(projectId);
-        List<MergeRequest> mergeRequestsWithoutDiffRefs = mergeRequestApi.getMergeRequests(filter);
+        filter.setProjectId(project.getId());
+        updatedAfter.ifPresent(filter::setUpdatedAfter);
+        return mergeRequestApi.getMergeRequests(filter);
+    }
 
-        // Gitlab returns lists of merge requests without diffreffs which we need for
-        // the sha, So we have to fetch all of them separately
-        List<MergeRequest> mergeRequestsWithDiffRefs = new ArrayList<>();
-        for (MergeRequest mergeRequest : mergeRequestsWithoutDiffRefs) {
-            var mergeRequestsWithDiffRef = mergeRequestApi.getMergeRequest(projectId, mergeRequest.getIid());
-            mergeRequestsWithDiffRefs.add(mergeRequestsWithDiffRef);
+    /**
+     * Fetches the merge requests that lack diff refs, which we need for the sha,
+     * separately and concurrently.
+     * 
+     * @param projectId     The project of the merge requests
+     * @param mergeRequests The merge requests as listed
+     * @return The merge requests with diff refs, in the same order
+     * @throws GitLabApiException   If fetching one of the merge requests fails
+     * @throws InterruptedException If interrupted while waiting for the fetches
+     */
+    public List<MergeRequest> withDiffRefs(Long projectId, List<MergeRequest> mergeRequests)
+            throws GitLabApiException, InterruptedException {
+        var pendingMergeRequests = new ArrayList<Future<MergeRequest>>();
+        for (MergeRequest mergeRequest : mergeRequests) {
+            if (mergeRequest.getDiffRefs() != null) {
+                pendingMergeRequests.add(CompletableFuture.completedFuture(mergeRequest));
+            } else {
+                pendingMergeRequests.add(detailFetchExecutor
+                        .submit(() -> mergeRequestApi.getMergeRequest(projectId, mergeRequest.getIid())));
+            }
         }
 
+        List<MergeRequest> mergeRequestsWithDiffRefs = new ArrayList<>();
+        for (Future<MergeRequest> pendingMergeRequest : pendingMergeRequests) {
+            try {
+                mergeRequestsWithDiffRefs.add(pendingMergeRequest.get());
+            } catch (ExecutionException ee) {
+                if (ee.getCause() instanceof GitLabApiException) {
+                    throw (GitLabApiException) ee.getCause();
+                }
+                throw new IllegalStateException(ee.getCause());
+            }
+        }
         return mergeRequestsWithDiffRefs;
     }
 
+    public MergeRequest getMergeRequest(Long projectId, Long mergeRequestIid) throws GitLabApiException {
+        return mergeRequestApi.getMergeRequest(projectId, mergeRequestIid);
+    }
+
     public Project getProjectById(Long projectId) throws GitLabApiException {
         return projectApi.getProject(projectId);
     }
@@ -200,22 +267,6 @@ public class GitLab {
         return String.format(Locale.US, SURVALYZER_URL_VAR_IDENTIFIER, number);
     }
 
-    private Discussion createRefactorDiscussion(Object projectIdOrPath, Long mergeRequestIid, RefactoringUnit refactor,
-            DiffRef diffRef) throws GitLabApiException, MalformedURLException, URISyntaxException {
-
-        var position = new Position();
-        position.setBaseSha(diffRef.getBaseSha());
-        position.setHeadSha(diffRef.getHeadSha());
-        position.setStartSha(diffRef.getStartSha());
-        position.setPositionType(PositionType.TEXT);
-        position.setNewLine(refactor.lineNumber);
-        position.setOldPath(refactor.oldPath);
-        position.setNewPath(refactor.newPath);
-        return discussionsApi.createMergeRequestDiscussion(projectIdOrPath, mergeRequestIid,
-                generateDescription(refactor), null, null, position);
-
-    }
-
     /**
      * Fetches the diffs for a certain merge request.
      * 
@@ -0,0 +1,94 @@
+package com.github.refactoringai.refactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Receives GitLab merge request webhook events and queues the merge request
+ * they are about, so it is processed without waiting for the next poll.
+ */
+@Path("/webhooks/gitlab")
+public class GitLabWebhookResource {
+
+    private static final Logger LOG = Logger.getLogger(GitLabWebhookResource.class);
+    private static final String MERGE_REQUEST_OBJECT_KIND = "merge_request";
+    private static final String OPENED_STATE = "opened";
+    private static final Set<String> PROCESSABLE_ACTIONS = Set.of("open", "reopen", "update");
+
+    @ConfigProperty(name = "webhook.enabled", defaultValue = "false")
+    Boolean webhookEnabled;
+
+    @ConfigProperty(name = "webhook.secret")
+    Optional<String> webhookSecret;
+
+    @ConfigProperty(name = "project.ids")
+    List<Long> projectIds;
+
+    @Inject
+    MergeRequestEventQueue mergeRequestEventQueue;
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response receive(@HeaderParam("X-Gitlab-Token") String token, JsonNode event) {
+        if (!webhookEnabled) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        if (webhookSecret.isEmpty()) {
+            // Without a secret anyone who can reach us could trigger analyses
+            LOG.warn("Refusing webhook event, webhook.secret has to be set when webhooks are enabled");
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+        if (!isValidToken(webhookSecret.get(), token)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+        if (event == null || !MERGE_REQUEST_OBJECT_KIND.equals(event.path("object_kind").asText())) {
+            return Response.ok().build();
+        }
+
+        var projectId = event.path("project").path("id").asLong();
+        var attributes = event.path("object_attributes");
+        var mergeRequestIid = attributes.path("iid").asLong();
+        var headSha = attributes.path("last_commit").path("id").asText();
+        if (!projectIds.contains(projectId) || !OPENED_STATE.equals(attributes.path("state").asText())
+                || !PROCESSABLE_ACTIONS.contains(attributes.path("action").asText()) || mergeRequestIid == 0L) {
+            LOG.debugf("Ignoring merge request event %s", event);
+            return Response.ok().build();
+        }
+
+        switch (mergeRequestEventQueue.submit(projectId, mergeRequestIid, headSha)) {
+        case QUEUED:
+            LOG.infof("Queued merge request %d of project %d", mergeRequestIid, projectId);
+            return Response.accepted().build();
+        case FULL:
+            return Response.status(Status.SERVICE_UNAVAILABLE).build();
+        default:
+            return Response.ok().build();
+        }
+    }
+
+    private boolean isValidToken(String secret, String token) {
+        if (token == null) {
+            return false;
+        }
+        // Constant time comparison to not leak the secret through timing
+        return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.github.refactoringai.refactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import ai.onnxruntime.OrtException;
+
+/**
+ * Scores refactoring units. With batching enabled the units of all merge
+ * requests that are being processed are collected and scored in one session
+ * run once {@code inference.batch.size} rows are collected or
+ * {@code inference.batch.max.wait} has passed. All runs happen on a single
+ * thread, which also bounds the amount of concurrent native runs.
+ */
+@ApplicationScoped
+public class InferenceService {
+
+    private static final Logger LOG = Logger.getLogger(InferenceService.class);
+
+    @ConfigProperty(name = "inference.batching.enabled", defaultValue = "false")
+    Boolean batchingEnabled;
+
+    @ConfigProperty(name = "inference.batch.size", defaultValue = "1024")
+    Integer batchSize;
+
+    @ConfigProperty(name = "inference.batch.max.wait", defaultValue = "50ms")
+    Duration batchMaxWait;
+
+    @Inject
+    OnnxPredictor onnxPredictor;
+
+    @Inject
+    PredictionCache predictionCache;
+
+    private final BlockingQueue<PendingPrediction> pendingPredictions = new LinkedBlockingQueue<>();
+    private Thread flusher;
+
+    private static class PendingPrediction {
+        private final LoadedModel loadedModel;
+        private final List<RefactoringUnit> refactoringUnits;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        /**
+         * Taken by the flusher when it runs the prediction, or by the caller when it
+         * stops waiting before that.
+         */
+        private final AtomicBoolean taken = new AtomicBoolean();
+
+        PendingPrediction(LoadedModel loadedModel, List<RefactoringUnit> refactoringUnits) {
+            this.loadedModel = loadedModel;
+            this.refactoringUnits = refactoringUnits;
+        }
+    }
+
+    @PostConstruct
+    void startFlusher() {
+        if (batchingEnabled) {
+            flusher = new Thread(this::flushBatches, "inference-batcher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    @PreDestroy
+    void stopFlusher() {
+        if (flusher != null) {
+            flusher.interrupt();
+        }
+    }
+
+    /**
+     * Scores the refactoring units with the model, blocks until they are scored.
+     * Units with a cached prediction are not scored again.
+     * 
+     * @param loadedModel      The model to score with, it has to stay acquired
+     *                         until this returns
+     * @param refactoringUnits The units to score
+     * @throws OrtException         If scoring fails
+     * @throws InterruptedException If interrupted while waiting for the batch
+     */
+    public void predict(LoadedModel loadedModel, List<RefactoringUnit> refactoringUnits)
+            throws OrtException, InterruptedException {
+        var notCached = predictionCache.applyCached(loadedModel, refactoringUnits);
+        if (!notCached.isEmpty()) {
+            score(loadedModel, notCached);
+            try {
+                predictionCache.put(loadedModel, notCached);
+            } catch (RuntimeException e) {
+                // Another merge request may have stored the same prediction concurrently
+                LOG.warnf(e, "Could not cache the predictions of %d units", notCached.size());
+            }
+        }
+    }
+
+    private void score(LoadedModel loadedModel, List<RefactoringUnit> refactoringUnits)
+            throws OrtException, InterruptedException {
+        if (!batchingEnabled) {
+            onnxPredictor.predict(loadedModel.getEnv(), loadedModel.getSession(), refactoringUnits);
+            return;
+        }
+        var pendingPrediction = new PendingPrediction(loadedModel, refactoringUnits);
+        pendingPredictions.put(pendingPrediction);
+        try {
+            pendingPrediction.result.get();
+        } catch (InterruptedException ie) {
+            if (!pendingPrediction.taken.compareAndSet(false, true)) {
+                // The flusher runs it on the session of the model, which the caller
+                // releases once we return
+                awaitRun(pendingPrediction);
+            }
+            throw ie;
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof OrtException) {
+                throw (OrtException) ee.getCause();
+            }
+            throw new IllegalStateException(ee.getCause());
+        }
+    }
+
+    private static void awaitRun(PendingPrediction pendingPrediction) {
+        try {
+            Uninterruptibles.getUninterruptibly(pendingPrediction.result);
+        } catch (ExecutionException ee) {
+            LOG.debugf(ee.getCause(), "Scoring units of an interrupted caller failed");
+        }
+    }
+
+    private void flushBatches() {
+        // Predictions for another model than the one being batched wait for the next batch
+        Deque<PendingPrediction> deferred = new ArrayDeque<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                var first = deferred.isEmpty() ? pendingPredictions.take() : deferred.pollFirst();
+                var batch = new ArrayList<PendingPrediction>();
+                batch.add(first);
+                int rows = first.refactoringUnits.size();
+                long deadline = System.nanoTime() + batchMaxWait.toNanos();
+                while (rows < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    var next = remaining > 0 ? pendingPredictions.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    if (next.loadedModel == first.loadedModel) {
+                        batch.add(next);
+                        rows += next.refactoringUnits.size();
+                    } else {
+                        deferred.addLast(next);
+                    }
+                }
+                run(batch, rows);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(List<PendingPrediction> collected, int collectedRows) {
+        // Callers that were interrupted may have released their model already
+        var batch = collected.stream().filter(pendingPrediction -> pendingPrediction.taken.compareAndSet(false, true))
+                .collect(Collectors.toList());
+        if (batch.isEmpty()) {
+            return;
+        }
+        var loadedModel = batch.get(0).loadedModel;
+        var refactoringUnits = new ArrayList<RefactoringUnit>(collectedRows);
+        batch.forEach(pendingPrediction -> refactoringUnits.addAll(pendingPrediction.refactoringUnits));
+        var rows = refactoringUnits.size();
+        try {
+            onnxPredictor.predict(loadedModel.getEnv(), loadedModel.getSession(), refactoringUnits);
+            LOG.debugf("Scored %d rows of %d merge requests in one batch", rows, batch.size());
+            batch.forEach(pendingPrediction -> pendingPrediction.result.complete(null));
+        } catch (OrtException | RuntimeException e) {
+            batch.forEach(pendingPrediction -> pendingPrediction.result.completeExceptionally(e));
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.github.refactoringai.refactory;
+
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.refactoringai.refactory.entities.Model;
+
+import org.jboss.logging.Logger;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * An ONNX session together with the model it was created from. The session is
+ * reference counted, it is closed once it has been replaced in the
+ * {@link ModelRegistry} and the last user closed it.
+ */
+public class LoadedModel implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(LoadedModel.class);
+
+    private final OrtEnvironment env;
+    private final OrtSession session;
+    private final Model model;
+    private final FileTime lastModified;
+    private final String version;
+    /**
+     * Starts at one for the reference held by the registry.
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    LoadedModel(OrtEnvironment env, OrtSession session, Model model, FileTime lastModified, String version) {
+        this.env = env;
+        this.session = session;
+        this.model = model;
+        this.lastModified = lastModified;
+        this.version = version;
+    }
+
+    public OrtEnvironment getEnv() {
+        return env;
+    }
+
+    public OrtSession getSession() {
+        return session;
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    FileTime getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * The model id together with a hash of the model file. A reloaded model can
+     * keep its id while it predicts differently, what is remembered of a model
+     * has to be keyed by its version.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Adds a reference unless the session has already been closed.
+     * 
+     * @return Whether a reference was added
+     */
+    boolean retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                session.close();
+            } catch (OrtException oe) {
+                LOG.warnf(oe, "Could not close the session of model %s", model.id);
+            }
+        }
+    }
+
+}
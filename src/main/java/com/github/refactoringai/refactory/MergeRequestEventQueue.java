@@ -0,0 +1,111 @@
+package com.github.refactoringai.refactory;
+
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Merge requests GitLab notified us about, waiting to be processed. Repeated
+ * events for the same merge request and head commit are only queued once.
+ */
+@ApplicationScoped
+public class MergeRequestEventQueue {
+
+    private static final Logger LOG = Logger.getLogger(MergeRequestEventQueue.class);
+
+    @ConfigProperty(name = "webhook.queue.capacity", defaultValue = "100")
+    Integer queueCapacity;
+
+    @ConfigProperty(name = "webhook.deduplication.window", defaultValue = "1h")
+    Duration deduplicationWindow;
+
+    @Inject
+    Poller poller;
+
+    private BlockingQueue<MergeRequestEvent> events;
+    private Cache<String, Boolean> seenEvents;
+    private Thread worker;
+
+    static class MergeRequestEvent {
+        private final Long projectId;
+        private final Long mergeRequestIid;
+
+        MergeRequestEvent(Long projectId, Long mergeRequestIid) {
+            this.projectId = projectId;
+            this.mergeRequestIid = mergeRequestIid;
+        }
+    }
+
+    @PostConstruct
+    void startWorker() {
+        events = new LinkedBlockingQueue<>(queueCapacity);
+        seenEvents = CacheBuilder.newBuilder().maximumSize(10L * queueCapacity)
+                .expireAfterWrite(deduplicationWindow.toMillis(), TimeUnit.MILLISECONDS).build();
+        worker = new Thread(this::processEvents, "webhook-events");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stopWorker() {
+        worker.interrupt();
+    }
+
+    /**
+     * Queues a merge request for processing.
+     * 
+     * @param projectId       The GitLab id of the project
+     * @param mergeRequestIid The iid of the merge request
+     * @param headSha         The head commit the event was sent for
+     * @return {@link SubmitResult#QUEUED} if queued, otherwise why it was not
+     */
+    public SubmitResult submit(Long projectId, Long mergeRequestIid, String headSha) {
+        var key = String.format("%d/%d/%s", projectId, mergeRequestIid, headSha);
+        if (seenEvents.asMap().putIfAbsent(key, Boolean.TRUE) != null) {
+            return SubmitResult.DUPLICATE;
+        }
+        if (!events.offer(new MergeRequestEvent(projectId, mergeRequestIid))) {
+            // Allow GitLab to retry it
+            seenEvents.invalidate(key);
+            return SubmitResult.FULL;
+        }
+        return SubmitResult.QUEUED;
+    }
+
+    public enum SubmitResult {
+        QUEUED, DUPLICATE, FULL
+    }
+
+    private void processEvents() {
+        while (!Thread.currentThread().isInterrupted()) {
+            MergeRequestEvent event;
+            try {
+                event = events.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                poller.pollMergeRequest(event.projectId, event.mergeRequestIid);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                LOG.errorf(e, "Processing merge request %d of project %d failed", event.mergeRequestIid,
+                        event.projectId);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.github.refactoringai.refactory;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+import com.github.refactoringai.refactory.entities.RefactoryMergeRequest;
+import com.github.refactoringai.refactory.entities.RefactoryProject;
+
+import org.gitlab4j.api.models.Diff;
+import org.gitlab4j.api.models.Discussion;
+import org.gitlab4j.api.models.MergeRequest;
+import org.gitlab4j.api.models.Project;
+
+/**
+ * The state of a single merge request while it moves through the stages of
+ * {@link Poller}. Every stage fills in the fields the next stage needs.
+ */
+public class MergeRequestJob {
+
+    final Project project;
+    final RefactoryProject refactoryProject;
+    final MergeRequest mergeRequest;
+    final Path repositoryPath;
+
+    WorkingCopy workingCopy;
+    RefactoryMergeRequest refactoryMergeRequest;
+    /**
+     * The head that was last analysed successfully, null if the merge request is
+     * analysed for the first time. Only kept on the job, the merge request
+     * records the new head once the analysis finished.
+     */
+    String previousHeadSha;
+    /**
+     * The paths that are analysed, on a re-analysis only the paths that changed
+     * since {@link #previousHeadSha}.
+     */
+    Set<Path> analysedPaths;
+    Map<Path, Diff> diffMap;
+    List<LoadedModel> loadedModels = List.of();
+    List<RefactoringUnit> refactoringUnits;
+    /**
+     * Whether the units were scored while they were extracted, only the candidates
+     * for a recommendation are in {@link #refactoringUnits} then.
+     */
+    boolean streamed;
+    List<Discussion> discussions;
+
+    private final CompletableFuture<List<Discussion>> result = new CompletableFuture<>();
+
+    MergeRequestJob(Project project, RefactoryProject refactoryProject, MergeRequest mergeRequest,
+            Path repositoryPath) {
+        this.project = project;
+        this.refactoryProject = refactoryProject;
+        this.mergeRequest = mergeRequest;
+        this.repositoryPath = repositoryPath;
+    }
+
+    public CompletableFuture<List<Discussion>> getResult() {
+        return result;
+    }
+
+    void releaseWorkingCopy() {
+        if (workingCopy != null) {
+            workingCopy.close();
+        }
+    }
+
+    void releaseModels() {
+        loadedModels.forEach(LoadedModel::close);
+        loadedModels = List.of();
+    }
+
+    void complete() {
+        releaseWorkingCopy();
+        releaseModels();
+        result.complete(discussions);
+    }
+
+    void fail(Throwable cause) {
+        releaseWorkingCopy();
+        releaseModels();
+        result.completeExceptionally(cause);
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.github.refactoringai.refactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Runs merge request jobs through a fixed sequence of stages. Every stage has
+ * its own workers and reads from a bounded queue, so I/O bound and CPU bound
+ * stages of different merge requests overlap. A full queue blocks the stage in
+ * front of it, which keeps the amount of merge requests in flight bounded.
+ */
+public class MergeRequestPipeline implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(MergeRequestPipeline.class);
+
+    @FunctionalInterface
+    public interface StageFunction {
+        void process(MergeRequestJob job) throws Exception;
+    }
+
+    public static class Stage {
+        private final String name;
+        private final int workers;
+        private final StageFunction function;
+
+        public Stage(String name, int workers, StageFunction function) {
+            this.name = name;
+            this.workers = workers;
+            this.function = function;
+        }
+    }
+
+    private final List<Stage> stages;
+    private final List<BlockingQueue<MergeRequestJob>> queues = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    public MergeRequestPipeline(int queueCapacity, List<Stage> stages) {
+        this.stages = List.copyOf(stages);
+        for (int i = 0; i < stages.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        for (int i = 0; i < stages.size(); i++) {
+            var stage = stages.get(i);
+            for (int worker = 0; worker < stage.workers; worker++) {
+                var thread = new Thread(stageWorker(i), String.format("pipeline-%s-%d", stage.name, worker));
+                thread.setDaemon(true);
+                workers.add(thread);
+            }
+        }
+        workers.forEach(Thread::start);
+    }
+
+    /**
+     * Queues the job for the first stage, blocks while the first stage is full.
+     * 
+     * @param job The job to process
+     * @return The job whose result completes when it has passed all stages
+     * @throws InterruptedException If interrupted while waiting for room
+     */
+    public MergeRequestJob submit(MergeRequestJob job) throws InterruptedException {
+        queues.get(0).put(job);
+        return job;
+    }
+
+    private Runnable stageWorker(int stageIndex) {
+        var stage = stages.get(stageIndex);
+        var input = queues.get(stageIndex);
+        var output = stageIndex + 1 < queues.size() ? queues.get(stageIndex + 1) : null;
+        return () -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    var job = input.take();
+                    try {
+                        stage.function.process(job);
+                    } catch (InterruptedException ie) {
+                        job.fail(ie);
+                        throw ie;
+                    } catch (Exception e) {
+                        LOG.debugf(e, "Stage %s failed for merge request \"%s\"", stage.name,
+                                job.mergeRequest.getTitle());
+                        job.fail(e);
+                        continue;
+                    }
+                    if (output == null) {
+                        job.complete();
+                    } else {
+                        output.put(job);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    /**
+     * Runs all stages for the job on the calling thread.
+     * 
+     * @param stages The stages to run
+     * @param job    The job to process
+     * @return The processed job
+     */
+    public static MergeRequestJob runInline(List<Stage> stages, MergeRequestJob job) {
+        try {
+            for (Stage stage : stages) {
+                stage.function.process(job);
+            }
+            job.complete();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            job.fail(e);
+        }
+        return job;
+    }
+
+    @Override
+    public void close() {
+        workers.forEach(Thread::interrupt);
+    }
+
+}
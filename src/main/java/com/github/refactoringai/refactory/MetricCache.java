@@ -0,0 +1,210 @@
+package com.github.refactoringai.refactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.runtime.configuration.MemorySize;
+
+/**
+ * Keeps the CK metrics of files on disk by the git blob id of the file, so a
+ * file is only parsed once no matter how many merge requests and revisions
+ * contain it. The key also holds the CK configuration and the layout of the
+ * metrics. The least recently used entries are removed when the cache outgrows
+ * its disk budget.
+ */
+@ApplicationScoped
+public class MetricCache {
+
+    private static final Logger LOG = Logger.getLogger(MetricCache.class);
+
+    private final boolean enabled;
+    private final Path cacheRoot;
+    private final MemorySize maxCacheSize;
+
+    /**
+     * Guarded by this, per entry file.
+     */
+    private final Map<Path, CacheEntry> entries = new HashMap<>();
+    private long totalSize;
+
+    private static class CacheEntry {
+        private final long size;
+        private Instant lastUsed;
+
+        CacheEntry(long size, Instant lastUsed) {
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Picks up the entries of earlier runs in the cache directory.
+     * 
+     * @param enabled      Whether metrics are cached
+     * @param cachePath    The directory of the cache, a directory in the
+     *                     temporary directory if absent
+     * @param maxCacheSize The disk budget of the cache
+     */
+    @Inject
+    public MetricCache(@ConfigProperty(name = "metrics.cache.enabled", defaultValue = "true") Boolean enabled,
+            @ConfigProperty(name = "metrics.cache.path") Optional<Path> cachePath,
+            @ConfigProperty(name = "metrics.cache.max.size", defaultValue = "1G") MemorySize maxCacheSize) {
+        this.enabled = enabled;
+        this.cacheRoot = cachePath.orElse(Paths.get(System.getProperty("java.io.tmpdir"), "refactory-metrics"));
+        this.maxCacheSize = maxCacheSize;
+        if (enabled) {
+            loadCache();
+        }
+    }
+
+    private void loadCache() {
+        try {
+            Files.createDirectories(cacheRoot);
+            // Pick up the entries of earlier runs, the modification time of an entry is the
+            // moment it was last used
+            try (Stream<Path> files = Files.walk(cacheRoot)) {
+                for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    var entry = new CacheEntry(Files.size(file), Files.getLastModifiedTime(file).toInstant());
+                    entries.put(file, entry);
+                    totalSize += entry.size;
+                }
+            }
+        } catch (IOException ioe) {
+            LOG.warnf(ioe, "Could not load metric cache at %s, continuing with what was loaded", cacheRoot);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param file The file to compute the git blob id of
+     * @return The id git gives the content of the file
+     * @throws IOException If the file cannot be read
+     */
+    public String blobId(Path file) throws IOException {
+        return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, Files.readAllBytes(file)).name();
+    }
+
+    /**
+     * @param blobId          The blob id of the file
+     * @param ckConfiguration The CK options that influence the metrics
+     * @return The metrics of the classes in the file, empty if not cached
+     */
+    public Optional<List<ClassMetrics>> get(String blobId, String ckConfiguration) {
+        var file = entryFile(blobId, ckConfiguration);
+        var now = Instant.now();
+        synchronized (this) {
+            var entry = entries.get(file);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            entry.lastUsed = now;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            var classesN = in.readInt();
+            var classMetrics = new ArrayList<ClassMetrics>(classesN);
+            for (int i = 0; i < classesN; i++) {
+                classMetrics.add(ClassMetrics.readFrom(in));
+            }
+            Files.setLastModifiedTime(file, FileTime.from(now));
+            return Optional.of(classMetrics);
+        } catch (IOException ioe) {
+            LOG.warnf(ioe, "Could not read cached metrics %s, analysing the file again", file);
+            remove(file);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param blobId          The blob id of the file
+     * @param ckConfiguration The CK options that influence the metrics
+     * @param classMetrics    The metrics of the classes in the file
+     */
+    public void put(String blobId, String ckConfiguration, List<ClassMetrics> classMetrics) {
+        var file = entryFile(blobId, ckConfiguration);
+        try {
+            Files.createDirectories(file.getParent());
+            var temporaryFile = Files.createTempFile(file.getParent(), blobId, ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeInt(classMetrics.size());
+                for (ClassMetrics metrics : classMetrics) {
+                    metrics.writeTo(out);
+                }
+            } catch (IOException ioe) {
+                Files.deleteIfExists(temporaryFile);
+                throw ioe;
+            }
+            var size = Files.size(temporaryFile);
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                var previous = entries.put(file, new CacheEntry(size, Instant.now()));
+                totalSize += size - (previous == null ? 0 : previous.size);
+                evictOverBudget();
+            }
+        } catch (IOException ioe) {
+            LOG.warnf(ioe, "Could not cache the metrics of blob %s", blobId);
+        }
+    }
+
+    private void evictOverBudget() {
+        long budget = maxCacheSize.asLongValue();
+        if (totalSize <= budget) {
+            return;
+        }
+        // Make some room so not every following put has to evict
+        long target = budget - budget / 10;
+        List<Map.Entry<Path, CacheEntry>> evictable = entries.entrySet().stream()
+                .sorted(Comparator.comparing(entry -> entry.getValue().lastUsed)).collect(Collectors.toList());
+        for (Map.Entry<Path, CacheEntry> entry : evictable) {
+            if (totalSize <= target) {
+                break;
+            }
+            remove(entry.getKey());
+        }
+    }
+
+    private synchronized void remove(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            var entry = entries.remove(file);
+            if (entry != null) {
+                totalSize -= entry.size;
+            }
+        } catch (IOException ioe) {
+            LOG.warnf(ioe, "Could not evict %s", file);
+        }
+    }
+
+    private Path entryFile(String blobId, String ckConfiguration) {
+        return cacheRoot.resolve(blobId.substring(0, 2))
+                .resolve(blobId + "-" + ckConfiguration + "-" + ClassMetrics.SCHEMA);
+    }
+
+}
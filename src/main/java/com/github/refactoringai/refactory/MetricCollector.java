@@ -1,146 +1,390 @@
 package com.github.refactoringai.refactory;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.mauricioaniche.ck.CK;
 import com.github.mauricioaniche.ck.CKClassResult;
+import com.github.mauricioaniche.ck.CKNotifier;
+import com.github.refactoringai.refactory.ClassMetrics.MethodMetrics;
 import com.github.refactoringai.refactory.entities.Model;
 import com.github.refactoringai.refactory.entities.RefactoringUnit;
-import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 
-import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.gitlab4j.api.models.Diff;
 import org.jboss.logging.Logger;
 
 @ApplicationScoped
 public class MetricCollector {
-    private static final List<String> PREFIXES_TO_REMOVE = List.of("class", "method");
     private static final int CLASS_START_LINE = 1;
+    private static final boolean USE_JARS = false;
+    private static final boolean VARIABLES_AND_FIELDS = true;
+    private static final List<String> BUILD_FILES = List.of("pom.xml", "build.gradle", "build.gradle.kts");
+    private static final String JAVA_FILE_EXTENSION = ".java";
     private static final Logger LOG = Logger.getLogger(MetricCollector.class);
 
+    /**
+     * Receives the refactoring units of {@link MetricCollector#streamMetrics}.
+     */
+    @FunctionalInterface
+    public interface UnitChunkConsumer<E extends Exception> {
+        void accept(List<RefactoringUnit> chunk) throws E, InterruptedException;
+    }
+
     @ConfigProperty(name = "min.method.loc", defaultValue = "1")
     Integer minMethodLoc;
 
+    /**
+     * The amount of CK analyses of one merge request that run in parallel, with 1
+     * all files are analysed in one go.
+     */
+    @ConfigProperty(name = "metrics.parallelism", defaultValue = "1")
+    Integer parallelism;
+
+    /**
+     * The amount of files analysed by one CK analysis when analysing in parallel.
+     */
+    @ConfigProperty(name = "metrics.partition.size", defaultValue = "25")
+    Integer partitionSize;
+
+    /**
+     * Only score the units that contain a line the merge request added.
+     */
+    @ConfigProperty(name = "diff.changed.units.only", defaultValue = "false")
+    Boolean changedUnitsOnly;
+
+    @ConfigProperty(name = "metrics.sourcepath.scope", defaultValue = "REPOSITORY")
+    SourcepathScope sourcepathScope;
+
+    /**
+     * The amount of files CK parses with one parser environment, 0 lets CK
+     * decide based on the maximum heap size.
+     */
+    @ConfigProperty(name = "metrics.ck.max.at.once", defaultValue = "0")
+    Integer maxAtOnce;
+
+    /**
+     * The maximum amount of files of a merge request that are analysed, the
+     * remaining files are skipped.
+     */
+    @ConfigProperty(name = "metrics.max.files")
+    Optional<Integer> maxFiles;
+
+    @Inject
+    MetricCache metricCache;
+
     @Inject
-    ObjectMapper objectMapper;
+    RepositoryManager repositoryManager;
+
+    /**
+     * By feature names, a reloaded model may keep its id with other features.
+     */
+    private final Map<List<String>, FeatureExtractionPlan> plans = new ConcurrentHashMap<>();
+    private ForkJoinPool ckPool;
+
+    @PostConstruct
+    void startCkPool() {
+        if (parallelism > 1) {
+            ckPool = new ForkJoinPool(parallelism);
+        }
+    }
+
+    @PreDestroy
+    void stopCkPool() {
+        if (ckPool != null) {
+            ckPool.shutdownNow();
+        }
+    }
 
     /**
      * Executes CK on the files changed in the list of diffs. First the non-Java
      * files are filtered out. Keep in mind that CK also analyses subclasses and
      * therefore the amount of files is not equal to the amount of samples
      * 
+     * CK runs once, every model gets its own refactoring units and feature matrix
+     * filled from the same results. Files whose content has been analysed before
+     * are taken from the {@link MetricCache}.
+     * 
      * @param repoPath The location of the repository to analyse
      * @param diffs    The diffs which contain information on the changed files
-     * @return The metrics with path information
+     * @param models   The models to create refactoring units for
+     * @return The metrics with path information, the units of a model are in the
+     *         order of the rows of its feature matrix
+     */
+    public List<RefactoringUnit> getMetrics(Path repoPath, Map<Path, Diff> diffMap, List<Model> models)
+            throws InterruptedException {
+        List<RefactoringUnit> refactoringUnits = new ArrayList<>();
+        streamMetrics(repoPath, diffMap, models, Integer.MAX_VALUE, refactoringUnits::addAll);
+        return refactoringUnits;
+    }
+
+    /**
+     * Like {@link #getMetrics(Path, Map, List)}, but hands the refactoring units
+     * over in chunks as they are extracted, so only the units of one chunk per
+     * model are held at a time.
+     * 
+     * @param chunkSize The amount of units of a chunk
+     * @param consumer  Receives the chunks, every chunk contains units of a single
+     *                  model in the order of the rows of their own feature matrix
      */
-    public List<RefactoringUnit> getMetrics(Path repoPath, Map<Path, Diff> diffMap, Model model) {
-        var ck = new CK(false, 0, true);
-        List<RefactoringUnit> samples = new ArrayList<>();
-        ck.calculate(repoPath, res -> fromCkClassResult(repoPath, res, samples, diffMap, model),
-                diffMap.values().stream().map(Diff::getNewPath).map(Paths::get).toArray(Path[]::new));
+    public <E extends Exception> void streamMetrics(Path repoPath, Map<Path, Diff> diffMap, List<Model> models,
+            int chunkSize, UnitChunkConsumer<E> consumer) throws InterruptedException, E {
+        var paths = diffMap.values().stream().map(Diff::getNewPath).map(Paths::get).collect(Collectors.toList());
+        var metricsByPath = collectClassMetrics(repoPath, paths);
+
+        Map<Model, List<RefactoringUnit>> samples = new LinkedHashMap<>();
+        Map<Model, FeatureMatrix> features = new HashMap<>();
+        for (var model : models) {
+            samples.put(model, new ArrayList<>());
+            features.put(model, new FeatureMatrix(model.featureNames.size()));
+        }
+        var extracted = 0;
+        for (var path : paths) {
+            var diff = diffMap.get(path);
+            var hunks = DiffHunks.parse(diff.getDiff());
+            for (var classMetrics : metricsByPath.getOrDefault(path, List.of())) {
+                var methods = classMetrics.methods.stream().filter(method -> method.loc >= minMethodLoc)
+                        .filter(method -> isScored(hunks, method.startLine, endLine(classMetrics, method)))
+                        .collect(Collectors.toList());
+                var classScored = isScored(hunks, CLASS_START_LINE, Integer.MAX_VALUE);
+                for (var model : models) {
+                    var modelSamples = samples.get(model);
+                    fromClassMetrics(classMetrics, classScored, methods, modelSamples, features.get(model), diff,
+                            hunks, model);
+                    if (modelSamples.size() >= chunkSize) {
+                        extracted += modelSamples.size();
+                        consumer.accept(modelSamples);
+                        samples.put(model, new ArrayList<>());
+                        features.put(model, new FeatureMatrix(model.featureNames.size()));
+                    }
+                }
+            }
+            // The metrics of a file are not needed once its units are extracted
+            metricsByPath.remove(path);
+        }
+        for (var modelSamples : samples.values()) {
+            if (!modelSamples.isEmpty()) {
+                extracted += modelSamples.size();
+                consumer.accept(modelSamples);
+            }
+        }
 
-        return samples;
+        LOG.debugf("Extracted %d refactoring units of %d files for %d models", extracted, paths.size(),
+                models.size());
     }
 
-    private void fromCkClassResult(Path repoPath, CKClassResult ckClassResult, Collection<RefactoringUnit> samples,
-            Map<Path, Diff> diffMap, Model model) {
-        var diff = diffMap.get(relativize(repoPath, ckClassResult));
+    /**
+     * Takes the metrics of the files from the cache or runs CK on them.
+     * 
+     * @return The metrics of the classes per file
+     */
+    private Map<Path, List<ClassMetrics>> collectClassMetrics(Path repoPath, List<Path> paths)
+            throws InterruptedException {
+        Map<Path, List<ClassMetrics>> metricsByPath = new ConcurrentHashMap<>();
+        Map<Path, String> blobIds = new HashMap<>();
+        var toAnalyse = new ArrayList<Path>();
+        for (var path : paths) {
+            if (!path.toString().endsWith(JAVA_FILE_EXTENSION)) {
+                // CK only analyses Java files, the other files have no metrics to cache
+                continue;
+            }
+            var cached = lookupCachedMetrics(repoPath, path, blobIds);
+            if (cached.isPresent()) {
+                metricsByPath.put(path, cached.get());
+            } else {
+                toAnalyse.add(path);
+            }
+        }
 
-        List<String> featureNames = model.featureNames;
-        toRawSample(featureNames, ckClassResult).ifPresent(input -> samples.add(RefactoringUnit
-                .createRefactoringUnit(diff, model, CLASS_START_LINE, ArrayUtils.toObject(input), ckClassResult.getClassName())));
+        if (maxFiles.isPresent() && toAnalyse.size() > maxFiles.get()) {
+            LOG.warnf("Only analysing %d of the %d changed files that have not been analysed before", maxFiles.get(),
+                    toAnalyse.size());
+            toAnalyse.subList(maxFiles.get(), toAnalyse.size()).clear();
+        }
 
-        var methods = ckClassResult.getMethods();
-        methods = methods.stream().filter(method -> method.getLoc() >= minMethodLoc).collect(Collectors.toSet());
-        for (var ckMethodResult : methods) {
-            toRawSample(featureNames, ckClassResult, ckMethodResult)
-                    .ifPresent(input -> samples.add(RefactoringUnit.createRefactoringUnit(diff, model,
-                            ckMethodResult.getStartLine(), ArrayUtils.toObject(input), ckMethodResult.getMethodName().split("/")[0])));
+        // Partitions are analysed concurrently
+        CKNotifier collector = res -> metricsByPath
+                .computeIfAbsent(relativize(repoPath, res), path -> Collections.synchronizedList(new ArrayList<>()))
+                .add(ClassMetrics.of(res));
+        if (toAnalyse.isEmpty()) {
+            LOG.debugf("The metrics of all %d files were cached", paths.size());
+        } else {
+            LOG.debugf("Analysing %d of %d files, the others were cached", toAnalyse.size(), paths.size());
+            analyse(repoPath, toAnalyse, collector);
+        }
+        for (var path : toAnalyse) {
+            var blobId = blobIds.get(path);
+            if (blobId != null) {
+                metricCache.put(blobId, ckConfiguration(), metricsByPath.getOrDefault(path, List.of()));
+            }
         }
+        return metricsByPath;
+    }
 
+    private Optional<List<ClassMetrics>> lookupCachedMetrics(Path repoPath, Path path, Map<Path, String> blobIds) {
+        if (!metricCache.isEnabled()) {
+            return Optional.empty();
+        }
+        try {
+            var blobId = metricCache.blobId(repoPath.resolve(path));
+            blobIds.put(path, blobId);
+            return metricCache.get(blobId, ckConfiguration());
+        } catch (IOException ioe) {
+            LOG.debugf(ioe, "Could not determine the blob id of %s", path);
+            return Optional.empty();
+        }
     }
 
-    private Path relativize(Path repoPath, CKClassResult classResult) {
-        return repoPath.relativize(Paths.get(classResult.getFile()));
+    /**
+     * Runs CK on the files. Every module is analysed separately with the module
+     * scope, and with a CK pool the files are analysed in partitions on the pool,
+     * every partition with its own CK instance.
+     * 
+     * @param files The files relative to the repository
+     */
+    private void analyse(Path repoPath, List<Path> files, CKNotifier collector) throws InterruptedException {
+        Map<Path, List<Path>> filesBySourceRoot = sourcepathScope == SourcepathScope.MODULE
+                ? groupByModule(repoPath, files)
+                : Map.of(repoPath, files);
+        var analyses = new ArrayList<Runnable>();
+        for (var filesOfSourceRoot : filesBySourceRoot.entrySet()) {
+            var sourceRoot = filesOfSourceRoot.getKey();
+            var relativeFiles = filesOfSourceRoot.getValue().stream()
+                    .map(file -> sourceRoot.relativize(repoPath.resolve(file))).collect(Collectors.toList());
+            var partitions = ckPool == null ? List.of(relativeFiles) : Lists.partition(relativeFiles, partitionSize);
+            for (var partition : partitions) {
+                analyses.add(() -> new CK(USE_JARS, maxAtOnce, VARIABLES_AND_FIELDS).calculate(sourceRoot, collector,
+                        partition.toArray(Path[]::new)));
+            }
+        }
+        LOG.debugf("Analysing %d files in %d source roots with %d analyses", files.size(), filesBySourceRoot.size(),
+                analyses.size());
+        if (ckPool == null || analyses.size() == 1) {
+            analyses.forEach(Runnable::run);
+            return;
+        }
+        try {
+            ckPool.submit(() -> analyses.parallelStream().forEach(Runnable::run)).get();
+        } catch (ExecutionException ee) {
+            Throwables.throwIfUnchecked(ee.getCause());
+            throw new IllegalStateException(ee.getCause());
+        }
     }
 
-    private String changeMachineLearningFeatureNameToCKFeatureName(String featureName) {
-        var prefixesToRemove = getPrefixToRemoveFromFeatureName();
-        for (String prefix : prefixesToRemove) {
-            featureName = StringUtils.removeStart(featureName, prefix);
+    private void fromClassMetrics(ClassMetrics classMetrics, boolean classScored, List<MethodMetrics> methods,
+            Collection<RefactoringUnit> samples, FeatureMatrix features, Diff diff, Optional<DiffHunks> hunks,
+            Model model) {
+        var plan = getPlan(model);
+        if (classScored) {
+            plan.addClassRow(features, classMetrics).ifPresent(row -> samples.add(withPosition(RefactoringUnit
+                    .createRefactoringUnit(diff, model, CLASS_START_LINE, features, row, classMetrics.className),
+                    hunks, Integer.MAX_VALUE)));
         }
 
-        if (featureName.equals("LCC")) {
-            return "looseClassCohesion";
-        } else if (featureName.equals("TCC")) {
-            return "tightClassCohesion";
-        } else if (featureName.equals("SubClassesQty")) {
-            return "innerClassesQty";
+        for (var methodMetrics : methods) {
+            plan.addMethodRow(features, classMetrics, methodMetrics)
+                    .ifPresent(row -> samples.add(withPosition(RefactoringUnit.createRefactoringUnit(diff, model,
+                            methodMetrics.startLine, features, row, methodMetrics.methodName.split("/")[0]),
+                            hunks, endLine(classMetrics, methodMetrics))));
         }
 
-        return StringUtils.uncapitalize(featureName);
     }
 
-    private List<String> getPrefixToRemoveFromFeatureName() {
-        return PREFIXES_TO_REMOVE;
+    /**
+     * Without hunks, for example when GitLab left out a too large diff, every unit
+     * is scored.
+     */
+    private boolean isScored(Optional<DiffHunks> hunks, int startLine, int endLine) {
+        return !changedUnitsOnly || hunks.isEmpty() || hunks.get().overlapsChange(startLine, endLine);
     }
 
-    private Optional<float[]> toRawSample(List<String> featureNames, Object... ckResults) {
-        Preconditions.checkNotNull(featureNames, "FeatureNames was null when converting to raw sample.");
-        var featureNamesN = featureNames.size();
-        var dataset = new float[featureNamesN];
+    /**
+     * CK does not report where a method ends, and its lines of code leave out blank
+     * and comment lines. A method is taken to span up to the next method of its
+     * class, the last method up to the end of the file.
+     */
+    private static int endLine(ClassMetrics classMetrics, MethodMetrics methodMetrics) {
+        var nextStartLine = classMetrics.methods.stream().mapToInt(method -> method.startLine)
+                .filter(startLine -> startLine > methodMetrics.startLine).min();
+        return nextStartLine.isPresent() ? nextStartLine.getAsInt() - 1 : Integer.MAX_VALUE;
+    }
 
-        var maps = Stream.of(ckResults).map(this::ckResultToMap).collect(Collectors.toList());
+    private static RefactoringUnit withPosition(RefactoringUnit refactoringUnit, Optional<DiffHunks> hunks,
+            int endLine) {
+        if (hunks.isPresent()) {
+            refactoringUnit.position = hunks.get()
+                    .positionFor(refactoringUnit.lineNumber, refactoringUnit.lineNumber, endLine).orElse(null);
+            refactoringUnit.postable = refactoringUnit.position != null;
+        }
+        return refactoringUnit;
+    }
 
-        featureNames = featureNames.stream().map(this::changeMachineLearningFeatureNameToCKFeatureName)
-                .collect(Collectors.toList());
-        for (int i = 0; i < featureNamesN; i++) {
-            String featureName = featureNames.get(i);
-            var found = false;
-            for (Map<String, Number> map : maps) {
-                if (map.containsKey(featureName)) {
-                    found = true;
-                    dataset[i] = map.get(featureName).floatValue();
-                }
-            }
-            if (!found) {
-                LOG.debugf("Sample %s not compatible due to lacking of feature %s. skipping sample", this, featureName);
-                return Optional.empty();
-            }
+    /**
+     * The CK options that influence the metrics, part of the {@link MetricCache}
+     * key. With {@link CheckoutMode#OBJECT_DATABASE} CK only sees the changed
+     * files and cannot resolve the types of the other files, so these metrics are
+     * kept apart from the ones of a checked out tree.
+     */
+    private String ckConfiguration() {
+        var tree = repositoryManager.getCheckoutMode() == CheckoutMode.OBJECT_DATABASE ? "changed" : "whole";
+        return "jars" + USE_JARS + "-fields" + VARIABLES_AND_FIELDS + "-" + sourcepathScope + "-tree" + tree;
+    }
+
+    private FeatureExtractionPlan getPlan(Model model) {
+        return plans.computeIfAbsent(List.copyOf(model.featureNames), FeatureExtractionPlan::compile);
+    }
+
+    /**
+     * Groups the files by the nearest directory with a build file, files outside
+     * of a module belong to the repository root.
+     */
+    private Map<Path, List<Path>> groupByModule(Path repoPath, List<Path> files) {
+        Map<Path, Path> moduleByDirectory = new HashMap<>();
+        Map<Path, List<Path>> filesByModule = new LinkedHashMap<>();
+        for (var file : files) {
+            var module = moduleOf(repoPath, repoPath.resolve(file).getParent(), moduleByDirectory);
+            filesByModule.computeIfAbsent(module, root -> new ArrayList<>()).add(file);
         }
-        return Optional.of(dataset);
+        return filesByModule;
     }
 
-    private Map<String, Number> ckResultToMap(Object ckResult) {
-        var objValueMap = objectMapper.convertValue(ckResult, new TypeReference<Map<String, Object>>() {
-        });
-        Map<String, Number> numberMap = new HashMap<>();
-        for (var objValueEntry : objValueMap.entrySet()) {
-            var key = objValueEntry.getKey();
-            var value = objValueEntry.getValue();
-            if (value instanceof Number) {
-                numberMap.put(key, (Number) value);
-            } else if (key.equals("type")) {
-                numberMap.put("isInnerClass", value.equals("innerclass") ? 1f : 0f);
-            }
+    private Path moduleOf(Path repoPath, Path directory, Map<Path, Path> moduleByDirectory) {
+        if (directory == null || !directory.startsWith(repoPath) || directory.equals(repoPath)) {
+            return repoPath;
+        }
+        var module = moduleByDirectory.get(directory);
+        if (module == null) {
+            module = BUILD_FILES.stream().anyMatch(buildFile -> Files.isRegularFile(directory.resolve(buildFile)))
+                    ? directory
+                    : moduleOf(repoPath, directory.getParent(), moduleByDirectory);
+            moduleByDirectory.put(directory, module);
         }
-        return numberMap;
+        return module;
+    }
+
+    private Path relativize(Path repoPath, CKClassResult classResult) {
+        return repoPath.toAbsolutePath().relativize(Paths.get(classResult.getFile()).toAbsolutePath());
     }
 
 }
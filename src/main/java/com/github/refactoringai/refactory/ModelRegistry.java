@@ -0,0 +1,227 @@
+package com.github.refactoringai.refactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+
+import com.github.refactoringai.refactory.entities.Model;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.OrtSession.SessionOptions;
+import ai.onnxruntime.OrtSession.SessionOptions.ExecutionMode;
+import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
+
+/**
+ * Keeps the model sessions loaded for the lifetime of the application, one per
+ * path in {@code model.path}. Every model declares its own refactoring type and
+ * feature names. When a model file changes on disk the new model is loaded and
+ * swapped in, merge requests that are being scored keep using the session they
+ * acquired.
+ */
+@ApplicationScoped
+public class ModelRegistry {
+
+    private static final Logger LOG = Logger.getLogger(ModelRegistry.class);
+
+    @ConfigProperty(name = "model.path")
+    List<Path> modelPaths;
+
+    @ConfigProperty(name = "onnx.intra.op.threads")
+    Optional<Integer> intraOpThreads;
+
+    @ConfigProperty(name = "onnx.inter.op.threads")
+    Optional<Integer> interOpThreads;
+
+    @ConfigProperty(name = "onnx.execution.mode", defaultValue = "SEQUENTIAL")
+    ExecutionMode executionMode;
+
+    @ConfigProperty(name = "onnx.optimization.level", defaultValue = "ALL_OPT")
+    OptLevel optimizationLevel;
+
+    @ConfigProperty(name = "onnx.memory.pattern", defaultValue = "true")
+    Boolean memoryPattern;
+
+    @ConfigProperty(name = "onnx.cpu.arena", defaultValue = "true")
+    Boolean cpuArena;
+
+    /**
+     * Where the graph optimized model is written, when it is newer than the model
+     * it is loaded instead of optimizing the model again.
+     */
+    @ConfigProperty(name = "onnx.optimized.model.path")
+    Optional<Path> optimizedModelPath;
+
+    @Inject
+    OnnxPredictor onnxPredictor;
+
+    private final Map<Path, LoadedModel> loadedModels = new HashMap<>();
+
+    /**
+     * Acquires the current models, loading them first if they were not loaded yet
+     * or their file changed. The returned models have to be closed when done.
+     * 
+     * @return The current models in the order of {@code model.path}
+     * @throws OrtException If a model could not be loaded
+     * @throws IOException  If a model file cannot be accessed
+     */
+    public List<LoadedModel> acquire() throws OrtException, IOException {
+        var acquired = new ArrayList<LoadedModel>(modelPaths.size());
+        try {
+            for (var modelPath : modelPaths) {
+                acquired.add(acquire(modelPath));
+            }
+        } catch (OrtException | IOException | RuntimeException e) {
+            acquired.forEach(LoadedModel::close);
+            throw e;
+        }
+        return acquired;
+    }
+
+    private LoadedModel acquire(Path modelPath) throws OrtException, IOException {
+        while (true) {
+            var loadedModel = reloadIfChanged(modelPath);
+            if (loadedModel.retain()) {
+                return loadedModel;
+            }
+            // Swapped and closed between reading and retaining, take the new one
+        }
+    }
+
+    private synchronized LoadedModel reloadIfChanged(Path modelPath) throws OrtException, IOException {
+        var lastModified = Files.getLastModifiedTime(modelPath);
+        var current = loadedModels.get(modelPath);
+        if (current != null && current.getLastModified().equals(lastModified)) {
+            return current;
+        }
+        LoadedModel loadedModel;
+        try {
+            loadedModel = load(modelPath, lastModified);
+        } catch (OrtException | IOException | RuntimeException e) {
+            if (current == null) {
+                throw e;
+            }
+            // The file may still be being written, try again on the next acquire
+            LOG.warnf(e, "Could not reload model %s, continuing with the loaded model", modelPath);
+            return current;
+        }
+        loadedModels.put(modelPath, loadedModel);
+        if (current != null) {
+            LOG.infof("Reloaded model %s", modelPath);
+            current.close();
+        }
+        return loadedModel;
+    }
+
+    private LoadedModel load(Path modelPath, FileTime lastModified) throws OrtException, IOException {
+        var modelPathStr = modelPath.toString();
+        var env = OrtEnvironment.getEnvironment();
+        var session = createSession(env, modelPath, lastModified);
+        try {
+            var model = findOrPersistModel(onnxPredictor.buildModel(modelPathStr, session));
+            return new LoadedModel(env, session, model, lastModified, model.id + ":" + hash(modelPath));
+        } catch (OrtException | IOException | RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    private static HashCode hash(Path modelPath) throws IOException {
+        return MoreFiles.asByteSource(modelPath).hash(Hashing.murmur3_128());
+    }
+
+    private OrtSession createSession(OrtEnvironment env, Path modelPath, FileTime lastModified)
+            throws OrtException {
+        var optimized = optimizedModelPath.map(path -> optimizedModelPathFor(path, modelPath));
+        if (optimized.isPresent() && isOptimizedModelUpToDate(optimized.get(), lastModified)) {
+            try (var options = createSessionOptions(OptLevel.NO_OPT)) {
+                LOG.infof("Loading optimized model %s", optimized.get());
+                return env.createSession(optimized.get().toString(), options);
+            } catch (OrtException e) {
+                LOG.warnf(e, "Could not load optimized model %s, optimizing %s again", optimized.get(), modelPath);
+            }
+        }
+        try (var options = createSessionOptions(optimizationLevel)) {
+            if (optimized.isPresent()) {
+                options.setOptimizedModelFilePath(optimized.get().toString());
+            }
+            return env.createSession(modelPath.toString(), options);
+        }
+    }
+
+    /**
+     * With a single model the configured path is used as is, with more models the
+     * file name of each model is appended to it so they do not overwrite each
+     * other.
+     */
+    private Path optimizedModelPathFor(Path configuredPath, Path modelPath) {
+        if (modelPaths.size() == 1) {
+            return configuredPath;
+        }
+        return configuredPath.resolveSibling(configuredPath.getFileName() + "-" + modelPath.getFileName());
+    }
+
+    private boolean isOptimizedModelUpToDate(Path optimized, FileTime modelLastModified) {
+        try {
+            return Files.exists(optimized) && Files.getLastModifiedTime(optimized).compareTo(modelLastModified) >= 0;
+        } catch (IOException e) {
+            LOG.warnf(e, "Could not access optimized model %s", optimized);
+            return false;
+        }
+    }
+
+    private SessionOptions createSessionOptions(OptLevel optLevel) throws OrtException {
+        var options = new SessionOptions();
+        try {
+            if (intraOpThreads.isPresent()) {
+                options.setIntraOpNumThreads(intraOpThreads.get());
+            }
+            if (interOpThreads.isPresent()) {
+                options.setInterOpNumThreads(interOpThreads.get());
+            }
+            options.setExecutionMode(executionMode);
+            options.setOptimizationLevel(optLevel);
+            options.setMemoryPatternOptimization(memoryPattern);
+            options.setCPUArenaAllocator(cpuArena);
+            return options;
+        } catch (OrtException e) {
+            options.close();
+            throw e;
+        }
+    }
+
+    @Transactional
+    Model findOrPersistModel(Model modelFromJson) {
+        Optional<Model> modelOptional = Model.findByIdOptional(modelFromJson.id);
+        if (modelOptional.isPresent()) {
+            return modelOptional.get();
+        }
+        modelFromJson.persist();
+        return modelFromJson;
+    }
+
+    @PreDestroy
+    synchronized void closeModels() {
+        loadedModels.values().forEach(LoadedModel::close);
+        loadedModels.clear();
+    }
+
+}
@@ -12,8 +12,6 @@ import com.github.refactoringai.refactory.entities.Model;
 import com.github.refactoringai.refactory.entities.RefactoringUnit;
 import com.google.common.base.Preconditions;
 
-import org.apache.commons.lang3.ArrayUtils;
-
 import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
@@ -45,15 +43,15 @@ public class OnnxPredictor {
 
     public void predict(OrtEnvironment env, OrtSession session, List<RefactoringUnit> samples) throws OrtException {
         Preconditions.checkArgument(!samples.isEmpty(), "No samples to predict for");
-        float[][] xs = samples.stream()
-                .map(refactoringUnit -> ArrayUtils.toPrimitive(refactoringUnit.input.toArray(new Float[0])))
-                .toArray(float[][]::new);
-
-        var input = Map.of(FLOAT_INPUT_IDENTIFIER_ONNX, OnnxTensor.createTensor(env, xs));
-        Result rawResult = session.run(input);
-
-        long[] ysLong = (long[]) rawResult.get(PREDICTION_LABEL_INDEX).getValue();
-        var ysProbabilitiesObj = rawResult.get(PREDICTION_PROBABILITY_INDEX).getValue();
+        var xs = toFeatureMatrix(samples);
+
+        long[] ysLong;
+        Object ysProbabilitiesObj;
+        try (var tensor = OnnxTensor.createTensor(env, xs.asBuffer(), xs.getShape());
+                Result rawResult = session.run(Map.of(FLOAT_INPUT_IDENTIFIER_ONNX, tensor))) {
+            ysLong = (long[]) rawResult.get(PREDICTION_LABEL_INDEX).getValue();
+            ysProbabilitiesObj = rawResult.get(PREDICTION_PROBABILITY_INDEX).getValue();
+        }
 
         for (int i = 0; i < ysLong.length; i++) {
             RefactoringUnit result = samples.get(i);
@@ -76,4 +74,23 @@ public class OnnxPredictor {
 
     }
 
+    /**
+     * Uses the matrix of the samples as is when the samples are exactly its rows,
+     * otherwise their rows are copied to a new matrix.
+     */
+    private FeatureMatrix toFeatureMatrix(List<RefactoringUnit> samples) {
+        var features = samples.get(0).features;
+        Preconditions.checkArgument(features != null, "Samples without features can not be predicted");
+        if (features.getRows() == samples.size()) {
+            var rowsInOrder = true;
+            for (int i = 0; i < samples.size() && rowsInOrder; i++) {
+                rowsInOrder = samples.get(i).features == features && samples.get(i).featureRow == i;
+            }
+            if (rowsInOrder) {
+                return features;
+            }
+        }
+        return FeatureMatrix.gather(samples);
+    }
+
 }
\ No newline at end of file
@@ -2,30 +2,45 @@ package com.github.refactoringai.refactory;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.transaction.Transactional;
 
+import com.github.refactoringai.refactory.MergeRequestPipeline.Stage;
 import com.github.refactoringai.refactory.entities.Model;
+import com.github.refactoringai.refactory.entities.PendingDiscussion;
 import com.github.refactoringai.refactory.entities.RefactoringUnit;
 import com.github.refactoringai.refactory.entities.RefactoryMergeRequest;
 import com.github.refactoringai.refactory.entities.RefactoryProject;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.errors.RepositoryNotFoundException;
-import org.eclipse.jgit.transport.CredentialsProvider;
-import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.gitlab4j.api.GitLabApiException;
 import org.gitlab4j.api.models.Diff;
@@ -34,92 +49,122 @@ import org.gitlab4j.api.models.MergeRequest;
 import org.gitlab4j.api.models.Project;
 import org.jboss.logging.Logger;
 
-import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
-import ai.onnxruntime.OrtSession;
-import io.quarkus.hibernate.orm.panache.Panache;
-import io.quarkus.narayana.jta.runtime.TransactionConfiguration;
 import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
 import io.quarkus.scheduler.Scheduler;
 
 @ApplicationScoped
 public class Poller {
 
     private static final Logger LOG = Logger.getLogger(Poller.class);
+    private static final Duration LISTING_OVERLAP = Duration.ofMinutes(1);
+    private static final int STREAMING_CANDIDATE_SLACK = 10;
 
-    @ConfigProperty(name = "git.fetch.before.checkout", defaultValue = "true")
-    Boolean fetchBeforeCheckout;
+    @ConfigProperty(name = "project.ids")
+    List<Long> projectIds;
 
-    @ConfigProperty(name = "git.username")
-    String gitUsername;
+    @ConfigProperty(name = "poll.concurrency", defaultValue = "1")
+    Integer pollConcurrency;
 
-    @ConfigProperty(name = "gitlab.oauth2.token")
-    String gitLabAccessToken;
+    @ConfigProperty(name = "poll.project.timeout")
+    Optional<Duration> projectTimeout;
 
-    @ConfigProperty(name = "model.path")
-    Path modelPath;
+    @ConfigProperty(name = "gitlab.incremental.listing", defaultValue = "false")
+    Boolean incrementalListing;
 
-    @ConfigProperty(name = "projects.path")
-    Optional<Path> projectsPath;
+    @ConfigProperty(name = "pipeline.enabled", defaultValue = "false")
+    Boolean pipelineEnabled;
 
-    @ConfigProperty(name = "project.ids")
-    List<Long> projectIds;
+    @ConfigProperty(name = "pipeline.queue.capacity", defaultValue = "4")
+    Integer pipelineQueueCapacity;
+
+    @ConfigProperty(name = "pipeline.checkout.workers", defaultValue = "1")
+    Integer checkoutWorkers;
+
+    @ConfigProperty(name = "pipeline.diff.workers", defaultValue = "1")
+    Integer diffWorkers;
+
+    @ConfigProperty(name = "pipeline.metrics.workers", defaultValue = "1")
+    Integer metricsWorkers;
+
+    @ConfigProperty(name = "pipeline.inference.workers", defaultValue = "1")
+    Integer inferenceWorkers;
+
+    @ConfigProperty(name = "pipeline.publish.workers", defaultValue = "1")
+    Integer publishWorkers;
+
+    /**
+     * Score the refactoring units in chunks while they are extracted and only keep
+     * the candidates for a recommendation, the other units are persisted right
+     * away.
+     */
+    @ConfigProperty(name = "streaming.enabled", defaultValue = "false")
+    Boolean streamingEnabled;
+
+    @ConfigProperty(name = "streaming.chunk.size", defaultValue = "512")
+    Integer streamingChunkSize;
 
     @Inject
     GitLab gitLab;
 
+    @Inject
+    DiscussionPublisher discussionPublisher;
+
+    @Inject
+    RecommendationPolicy recommendationPolicy;
+
     @Inject
     MetricCollector metricCollector;
 
     @Inject
-    OnnxPredictor onnxPredictor;
+    RawInputMigration rawInputMigration;
 
     @Inject
-    Scheduler scheduler;
+    InferenceService inferenceService;
 
-    private Git openOrCloneRepository(Path repositoryPath, String cloneUri, CredentialsProvider credentialsProvider)
-            throws IOException, GitAPIException {
+    @Inject
+    RepositoryManager repositoryManager;
 
-        try {
-            // TODO allow for specification of other git folders than .git
-            var dotGit = repositoryPath.resolve(".git");
-            if (Files.isDirectory(dotGit)) {
-                return Git.open(repositoryPath.toFile());
-            }
-            // is repo a submodule, in submodules there is a file with a path to the git
-            // objects instead of a .git folder (e.g. gitdir: ../../../../.git/modules/refactory-test\n hopefully git
-            // doesn't change the format of this):
-            var dotGitContents = Files.readString(dotGit);
-
-            // Trim necesarry for linebreak at the end of the file
-            var splitDotGitContents  = dotGitContents.split(" ")[1].trim();
-            var gitFilesPath = repositoryPath.resolve(splitDotGitContents).normalize();
-            return Git.open(gitFilesPath.toFile());
-        } catch (RepositoryNotFoundException rnfe) {
-            LOG.infof("Repository not found at %s trying to clone from %s", repositoryPath, cloneUri);
-            Files.createDirectories(repositoryPath);
-            try {
-                return Git.cloneRepository().setCloneAllBranches(true).setURI(cloneUri)
-                        .setDirectory(repositoryPath.toFile()).setCredentialsProvider(credentialsProvider).call();
-            } catch (GitAPIException gae) {
-                LOG.errorf(rnfe, "Could not open repo at %s", repositoryPath);
-                LOG.errorf(gae, "Could not clone %s Exiting", cloneUri);
-                throw gae;
-            }
-        }
-    }
+    @Inject
+    ProcessedMergeRequestIndex processedMergeRequests;
 
-    private void prepareRepository(Path repositoryPath, String cloneUri, String sha)
-            throws IOException, GitAPIException {
-        var credentialsProvider = new UsernamePasswordCredentialsProvider(gitUsername, gitLabAccessToken);
+    @Inject
+    RepositoryCache repositoryCache;
 
-        try (Git git = openOrCloneRepository(repositoryPath, cloneUri, credentialsProvider)) {
-            if (fetchBeforeCheckout) {
-                // TODO allow for specification of other remotes than origin
-                git.fetch().setCredentialsProvider(credentialsProvider).setRemote("origin").call();
-            }
+    @Inject
+    ModelRegistry modelRegistry;
 
-            git.checkout().setName(sha).setForced(true).call();
+    @Inject
+    Scheduler scheduler;
+
+    private ExecutorService projectExecutor;
+    private ScheduledExecutorService projectTimeoutScheduler;
+    private List<Stage> stages;
+    private MergeRequestPipeline pipeline;
+
+    @PostConstruct
+    void startExecutors() {
+        projectExecutor = Executors.newFixedThreadPool(pollConcurrency,
+                new ThreadFactoryBuilder().setNameFormat("project-poller-%d").setDaemon(true).build());
+        projectTimeoutScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("project-timeout-%d").setDaemon(true).build());
+        stages = List.of(new Stage("diff", diffWorkers, this::diffStage),
+                new Stage("checkout", checkoutWorkers, this::checkoutStage),
+                new Stage("metrics", metricsWorkers, this::metricsStage),
+                new Stage("inference", inferenceWorkers, this::inferenceStage),
+                new Stage("publish", publishWorkers, this::publishStage));
+        if (pipelineEnabled) {
+            pipeline = new MergeRequestPipeline(pipelineQueueCapacity, stages);
+        }
+    }
+
+    @PreDestroy
+    void stopExecutors() {
+        projectExecutor.shutdownNow();
+        projectTimeoutScheduler.shutdownNow();
+        if (pipeline != null) {
+            pipeline.close();
         }
     }
 
@@ -129,108 +174,403 @@ public class Poller {
                 .collect(Collectors.toMap(diff -> Paths.get(diff.getNewPath()), Function.identity()));
     }
 
-    @Transactional
-    @TransactionConfiguration(timeout = Integer.MAX_VALUE)
-    public List<RefactoringUnit> getRefactoringUnitsForMergeRequest(Path repositoryPath, Map<Path, Diff> diffMap)
-            throws OrtException {
-
-        var modelPathStr = modelPath.toString();
-        List<RefactoringUnit> refactoringUnits;
-        try (var env = OrtEnvironment.getEnvironment();
-                var session = env.createSession(modelPathStr, new OrtSession.SessionOptions())) {
-            Model model;
-            var modelFromJson = onnxPredictor.buildModel(modelPathStr, session);
-            var modelOptional = Model.findByIdOptional(modelFromJson.id);
-            if (!modelOptional.isPresent()) {
-                modelFromJson.persist();
-                model = modelFromJson;
+    void diffStage(MergeRequestJob job) throws GitLabApiException {
+        var refactoryMergeRequest = startAnalysis(job.refactoryProject, job.mergeRequest);
+        job.previousHeadSha = refactoryMergeRequest.headSha;
+        job.refactoryMergeRequest = refactoryMergeRequest;
+        job.diffMap = buildDiffMap(job.project, job.mergeRequest);
+        job.analysedPaths = job.diffMap.keySet();
+    }
+
+    void checkoutStage(MergeRequestJob job) throws Exception {
+        var cloneUri = job.project.getHttpUrlToRepo();
+        var headSha = job.mergeRequest.getSha();
+        if (job.previousHeadSha != null) {
+            // Only files whose blob changed since the last analysis have to be analysed again
+            var changedPaths = repositoryManager.changedPaths(job.repositoryPath, cloneUri, job.previousHeadSha,
+                    headSha, job.mergeRequest.getIid());
+            changedPaths.ifPresent(paths -> job.analysedPaths = job.diffMap.keySet().stream()
+                    .filter(paths::contains).collect(Collectors.toSet()));
+        }
+        job.workingCopy = repositoryManager.checkout(job.repositoryPath, cloneUri, headSha,
+                job.mergeRequest.getIid(), job.analysedPaths);
+    }
+
+    void metricsStage(MergeRequestJob job) throws OrtException, IOException, InterruptedException {
+        job.loadedModels = modelRegistry.acquire();
+        var models = job.loadedModels.stream().map(LoadedModel::getModel).collect(Collectors.toList());
+        try {
+            var diffMap = Maps.filterKeys(job.diffMap, job.analysedPaths::contains);
+            if (streamingEnabled) {
+                streamMetrics(job, diffMap, models);
             } else {
-                model = (Model) modelOptional.get();
+                job.refactoringUnits = metricCollector.getMetrics(job.workingCopy.getPath(), diffMap, models);
             }
-            refactoringUnits = metricCollector.getMetrics(repositoryPath, diffMap, model);
-            if (refactoringUnits.isEmpty()) {
+        } finally {
+            // The next merge request can use the working copy while this one is scored
+            job.releaseWorkingCopy();
+        }
+    }
+
+    /**
+     * Extracts, scores and selects the refactoring units in chunks. Only the
+     * candidates for a recommendation are kept for the publish stage, the other
+     * units are persisted per chunk.
+     */
+    private void streamMetrics(MergeRequestJob job, Map<Path, Diff> diffMap, List<Model> models)
+            throws OrtException, InterruptedException {
+        // The outdated units have to be gone before the new units of the same paths are persisted,
+        // on a first analysis these are the units of an earlier attempt that failed
+        var lock = discussionPublisher.lockFor(job.refactoryMergeRequest);
+        lock.lock();
+        try {
+            deleteOutdatedUnits(job.refactoryMergeRequest, job.analysedPaths);
+        } finally {
+            lock.unlock();
+        }
+        var loadedModels = job.loadedModels.stream()
+                .collect(Collectors.toMap(LoadedModel::getModel, Function.identity()));
+        // Some slack, GitLab can refuse to place a recommendation
+        var amountOfRecommendations = recommendationPolicy.getAmountOfRecommendations();
+        var candidates = amountOfRecommendations > Integer.MAX_VALUE - STREAMING_CANDIDATE_SLACK ? Integer.MAX_VALUE
+                : amountOfRecommendations + STREAMING_CANDIDATE_SLACK;
+        var selector = new CandidateSelector(candidates, recommendationPolicy::qualifies);
+        metricCollector.streamMetrics(job.workingCopy.getPath(), diffMap, models, streamingChunkSize, chunk -> {
+            inferenceService.predict(loadedModels.get(chunk.get(0).model), chunk);
+            chunk.forEach(unit -> unit.refactoryMergeRequest = job.refactoryMergeRequest);
+            persistRefactoringUnits(selector.offer(chunk));
+        });
+        job.refactoringUnits = selector.getCandidates();
+        job.streamed = true;
+    }
+
+    @Transactional
+    public void persistRefactoringUnits(List<RefactoringUnit> refactoringUnits) {
+        if (!refactoringUnits.isEmpty()) {
+            RefactoringUnit.persist(refactoringUnits);
+        }
+    }
+
+    @Transactional
+    public void deleteOutdatedUnits(RefactoryMergeRequest refactoryMergeRequest, Set<Path> reanalysedPaths) {
+        // Recommendations not placed yet are for an earlier head, their lines may have moved
+        PendingDiscussion.delete("refactoryMergeRequest = ?1", refactoryMergeRequest);
+        if (!reanalysedPaths.isEmpty()) {
+            var newPaths = reanalysedPaths.stream().map(Path::toString).collect(Collectors.toList());
+            rawInputMigration.deleteRawInput(refactoryMergeRequest, newPaths);
+            // Recommended units are kept, the placed discussions refer to them
+            RefactoringUnit.delete("refactoryMergeRequest = ?1 and newPath in ?2 and wasRecommended = false",
+                    refactoryMergeRequest, newPaths);
+        }
+    }
+
+    void inferenceStage(MergeRequestJob job) throws OrtException, InterruptedException {
+        try {
+            if (job.streamed) {
+                // Scored while streaming
+                return;
+            }
+            if (job.refactoringUnits.isEmpty()) {
                 LOG.info("No metrics found for merge request");
-                return List.of();
+                return;
             }
-            onnxPredictor.predict(env, session, refactoringUnits);
+            for (var loadedModel : job.loadedModels) {
+                var refactoringUnits = job.refactoringUnits.stream()
+                        .filter(unit -> unit.model == loadedModel.getModel()).collect(Collectors.toList());
+                if (!refactoringUnits.isEmpty()) {
+                    inferenceService.predict(loadedModel, refactoringUnits);
+                }
+            }
+        } finally {
+            job.releaseModels();
+        }
+    }
+
+    void publishStage(MergeRequestJob job) throws URISyntaxException, IOException {
+        job.refactoringUnits.forEach(unit -> unit.refactoryMergeRequest = job.refactoryMergeRequest);
+        var lock = discussionPublisher.lockFor(job.refactoryMergeRequest);
+        lock.lock();
+        try {
+            enqueueRecommendations(job.mergeRequest, job.refactoryMergeRequest, job.refactoringUnits,
+                    job.streamed ? Set.of() : job.analysedPaths);
+            job.discussions = discussionPublisher.publish(job.refactoryMergeRequest);
+        } finally {
+            lock.unlock();
         }
+        LOG.infof("Created %d merge request discussions at %s", job.discussions.size(), job.mergeRequest.getWebUrl());
+        finishAnalysis(job.refactoryMergeRequest);
+        processedMergeRequests.markProcessed(job.refactoryMergeRequest);
+    }
 
-        return refactoringUnits;
+    /**
+     * Records that the head being analysed is analysed, a merge request whose
+     * analysis failed is analysed again on the next poll.
+     */
+    @Transactional
+    public void finishAnalysis(RefactoryMergeRequest refactoryMergeRequest) {
+        RefactoryMergeRequest.update("headSha = ?1, analysingHeadSha = null where id = ?2",
+                refactoryMergeRequest.analysingHeadSha, refactoryMergeRequest.id);
+        refactoryMergeRequest.headSha = refactoryMergeRequest.analysingHeadSha;
+        refactoryMergeRequest.analysingHeadSha = null;
     }
 
+    /**
+     * Persists the refactoring units of the merge request and puts the best of them
+     * in the outbox of {@link DiscussionPublisher}, in one short transaction. On a
+     * re-analysis the units of the re-analysed paths replace the earlier ones, the
+     * units of the other paths are kept as they are.
+     * 
+     * @param mergeRequest          The merge request to recommend on
+     * @param refactoryMergeRequest The persisted merge request
+     * @param toRecommend           The newly scored refactoring units
+     * @param reanalysedPaths       The paths whose earlier units are outdated
+     */
     @Transactional
-    @TransactionConfiguration(timeout = Integer.MAX_VALUE)
-    public List<Discussion> processMergeRequest(MergeRequest mergeRequest, List<RefactoringUnit> toRecommend,
-            Project project) throws GitLabApiException, URISyntaxException, IOException {
+    public void enqueueRecommendations(MergeRequest mergeRequest, RefactoryMergeRequest refactoryMergeRequest,
+            List<RefactoringUnit> toRecommend, Set<Path> reanalysedPaths) throws URISyntaxException, IOException {
+
+        deleteOutdatedUnits(refactoryMergeRequest, reanalysedPaths);
 
         if (toRecommend.isEmpty()) {
             LOG.infof("No refactoring units for %s", mergeRequest.getTitle());
-            return List.of();
+            return;
         }
 
-        // Persist already to receive id from persistence provider.
+        // Persist already to receive id from persistence provider, the survey url
+        // of a recommendation refers to it
         RefactoringUnit.persist(toRecommend);
-        List<Discussion> discussions = gitLab.createDiscussionsFromRefactors(mergeRequest, toRecommend);
+        var recommended = recommendedUnitKeys(refactoryMergeRequest);
+        var recommendable = gitLab.selectRecommendable(toRecommend).stream()
+                .filter(unit -> !recommended.contains(unitKey(unit.newPath, unit.unitName, unit.model.id)))
+                .collect(Collectors.toList());
+        var pendingDiscussions = new ArrayList<PendingDiscussion>(recommendable.size());
+        for (var refactoringUnit : recommendable) {
+            pendingDiscussions.add(PendingDiscussion.fromRefactoringUnit(refactoringUnit,
+                    mergeRequest.getDiffRefs(), gitLab.generateDescription(refactoringUnit),
+                    pendingDiscussions.size()));
+        }
+        PendingDiscussion.persist(pendingDiscussions);
+    }
 
-        // Keep track whether the recommendation was served
-        toRecommend.forEach(Panache.getEntityManager()::merge);
-        LOG.infof("Created %d merge request discussions at %s", discussions.size(), mergeRequest.getWebUrl());
-        return discussions;
+    /**
+     * The units recommended on an earlier head of the merge request, they are not
+     * recommended again.
+     */
+    private static Set<List<Object>> recommendedUnitKeys(RefactoryMergeRequest refactoryMergeRequest) {
+        return RefactoringUnit.getEntityManager()
+                .createQuery("select u.newPath, u.unitName, u.model.id from RefactoringUnit u"
+                        + " where u.refactoryMergeRequest = :mergeRequest and u.wasRecommended = true", Object[].class)
+                .setParameter("mergeRequest", refactoryMergeRequest).getResultList().stream()
+                .map(row -> unitKey(row[0], row[1], row[2])).collect(Collectors.toSet());
     }
 
+    private static List<Object> unitKey(Object newPath, Object unitName, Object modelId) {
+        return List.of(newPath, unitName, modelId);
+    }
+
+    /**
+     * Records that the current head of the merge request is being analysed.
+     * 
+     * @return The persisted merge request, with the head that was analysed before
+     *         in {@link RefactoryMergeRequest#headSha}
+     */
     @Transactional
-    @TransactionConfiguration(timeout = Integer.MAX_VALUE)
-    public void persistMergeRequestInTransaction(RefactoryMergeRequest refactoryMergeRequest) {
+    public RefactoryMergeRequest startAnalysis(RefactoryProject refactoryProject, MergeRequest mergeRequest) {
+        var existing = RefactoryMergeRequest.findByProjectAndIid(refactoryProject, mergeRequest.getIid());
+        if (existing.isPresent()) {
+            var refactoryMergeRequest = existing.get();
+            refactoryMergeRequest.analysingHeadSha = mergeRequest.getSha();
+            return refactoryMergeRequest;
+        }
+        var refactoryMergeRequest = RefactoryMergeRequest.fromGitlabMergeRequest(mergeRequest);
+        refactoryMergeRequest.project = refactoryProject;
         refactoryMergeRequest.persist();
+        return refactoryMergeRequest;
     }
 
     private List<Discussion> processProject(Project project)
-            throws GitLabApiException, IOException, GitAPIException, OrtException, URISyntaxException {
+            throws GitLabApiException, IOException, InterruptedException {
         LOG.infof("Polling for merge requests for project \"%s\"", project.getName());
-        Path repositoryPath = repositoryPathFromProject(project);
         RefactoryProject refactoryProject = persistRefactoryProjectIfNotPersisted(project);
-        List<MergeRequest> mergeRequests = gitLab.getOpenedMergeRequests(project);
-        var resultingGitlabDiscussions = new ArrayList<Discussion>();
-        for (MergeRequest mergeRequest : mergeRequests) {
+        var listedAt = Instant.now();
+        Optional<Date> updatedAfter = incrementalListing ? Optional.ofNullable(refactoryProject.mergeRequestsListedAt)
+                : Optional.empty();
+        var unfinished = new ArrayList<MergeRequest>();
+        var discussions = processMergeRequests(project, refactoryProject,
+                gitLab.getOpenedMergeRequests(project, updatedAfter), unfinished);
+        if (incrementalListing) {
+            listedUntil(listedAt, unfinished).ifPresent(
+                    listedUntil -> updateMergeRequestsListedAt(refactoryProject, Date.from(listedUntil)));
+        }
+        return discussions;
+    }
 
-            if (RefactoryMergeRequest.hasMergeRequestBeenProcessed(mergeRequest, refactoryProject)) {
-                continue;
+    /**
+     * The moment up to which the merge requests have been listed. Overlap to not
+     * miss merge requests due to clock differences with GitLab, the overlapping
+     * merge requests are already processed and thus filtered out. Merge requests
+     * whose processing did not finish have to be listed again.
+     * 
+     * @return Empty if the moment can not move forward
+     */
+    private static Optional<Instant> listedUntil(Instant listedAt, List<MergeRequest> unfinished) {
+        var listedUntil = listedAt;
+        for (MergeRequest mergeRequest : unfinished) {
+            if (mergeRequest.getUpdatedAt() == null) {
+                return Optional.empty();
             }
-            LOG.infof("Found not yet processed merge request \"%s\"", mergeRequest.getTitle());
-            prepareRepository(repositoryPath, project.getHttpUrlToRepo(), mergeRequest.getSha());
-            var refactoryMergeRequest = RefactoryMergeRequest.fromGitlabMergeRequest(mergeRequest);
-            refactoryMergeRequest.project = refactoryProject;
-            persistMergeRequestInTransaction(refactoryMergeRequest);
-            Map<Path, Diff> diffMap = buildDiffMap(project, mergeRequest);
+            var updatedAt = mergeRequest.getUpdatedAt().toInstant();
+            if (updatedAt.isBefore(listedUntil)) {
+                listedUntil = updatedAt;
+            }
+        }
+        return Optional.of(listedUntil.minus(LISTING_OVERLAP));
+    }
 
-            List<RefactoringUnit> toRecommend = getRefactoringUnitsForMergeRequest(repositoryPath, diffMap);
-            toRecommend.forEach(unit -> unit.refactoryMergeRequest = refactoryMergeRequest);
+    /**
+     * Processes a single merge request, e.g. after GitLab notified us about it.
+     * Nothing happens when the merge request has already been processed.
+     * 
+     * @param projectId       The GitLab id of the project
+     * @param mergeRequestIid The iid of the merge request
+     * @return The created discussions
+     */
+    public List<Discussion> pollMergeRequest(Long projectId, Long mergeRequestIid)
+            throws GitLabApiException, IOException, InterruptedException {
+        var project = gitLab.getProjectById(projectId);
+        return processMergeRequests(project, persistRefactoryProjectIfNotPersisted(project),
+                List.of(gitLab.getMergeRequest(projectId, mergeRequestIid)), new ArrayList<>());
+    }
+
+    /**
+     * @param unfinished Receives the claimed merge requests whose processing failed
+     *                   or was not started, and the ones that are being processed
+     *                   elsewhere, e.g. for a webhook event, as that may still fail
+     */
+    private List<Discussion> processMergeRequests(Project project, RefactoryProject refactoryProject,
+            List<MergeRequest> mergeRequests, List<MergeRequest> unfinished)
+            throws GitLabApiException, IOException, InterruptedException {
+        List<MergeRequest> claimed = processedMergeRequests.claimUnprocessed(refactoryProject, mergeRequests,
+                unfinished);
+        if (claimed.isEmpty()) {
+            return List.of();
+        }
+        var repository = repositoryCache.lease(project);
+        List<MergeRequestJob> jobs;
+        try {
+            jobs = startJobs(project, refactoryProject, claimed, repository.getPath());
+        } catch (GitLabApiException | InterruptedException | RuntimeException e) {
+            repository.close();
+            throw e;
+        }
+        // Keep the repository until all jobs are done, even if we stop waiting for them
+        CompletableFuture.allOf(jobs.stream().map(MergeRequestJob::getResult).toArray(CompletableFuture[]::new))
+                .whenComplete((result, failure) -> repository.close());
 
-            resultingGitlabDiscussions.addAll(processMergeRequest(mergeRequest, toRecommend, project));
+        var resultingGitlabDiscussions = new ArrayList<Discussion>();
+        var finishedIids = new HashSet<Long>();
+        for (MergeRequestJob job : jobs) {
+            try {
+                resultingGitlabDiscussions.addAll(job.getResult().get());
+                finishedIids.add(job.mergeRequest.getIid());
+            } catch (ExecutionException ee) {
+                LOG.errorf(ee.getCause(), "Processing merge request \"%s\" failed", job.mergeRequest.getTitle());
+            }
         }
+        claimed.stream().filter(mergeRequest -> !finishedIids.contains(mergeRequest.getIid()))
+                .forEach(unfinished::add);
         return resultingGitlabDiscussions;
     }
 
-    public List<Discussion> poll()
-            throws GitLabApiException, IOException, GitAPIException, OrtException, URISyntaxException {
-        var projects = new ArrayList<Project>();
+    private List<MergeRequestJob> startJobs(Project project, RefactoryProject refactoryProject,
+            List<MergeRequest> claimed, Path repositoryPath) throws GitLabApiException, InterruptedException {
+        List<MergeRequest> unprocessed;
+        try {
+            // Only fetch the details of merge requests we are actually going to process
+            unprocessed = gitLab.withDiffRefs(project.getId(), claimed);
+        } catch (GitLabApiException | InterruptedException | RuntimeException e) {
+            claimed.forEach(mergeRequest -> processedMergeRequests.release(refactoryProject, mergeRequest.getIid()));
+            throw e;
+        }
+        var jobs = new ArrayList<MergeRequestJob>();
+        try {
+            for (MergeRequest mergeRequest : unprocessed) {
+                LOG.infof("Found not yet processed merge request \"%s\"", mergeRequest.getTitle());
+                var job = new MergeRequestJob(project, refactoryProject, mergeRequest, repositoryPath);
+                job.getResult().whenComplete(
+                        (discussions, failure) -> processedMergeRequests.release(refactoryProject, mergeRequest.getIid()));
+                if (pipeline != null) {
+                    jobs.add(pipeline.submit(job));
+                } else {
+                    jobs.add(MergeRequestPipeline.runInline(stages, job));
+                }
+            }
+        } catch (InterruptedException ie) {
+            unprocessed.subList(jobs.size(), unprocessed.size())
+                    .forEach(mergeRequest -> processedMergeRequests.release(refactoryProject, mergeRequest.getIid()));
+            // The submitted jobs still hold the repository, the caller stops waiting for them
+            Thread.currentThread().interrupt();
+        }
+        return jobs;
+    }
+
+    /**
+     * Processes all configured projects on a pool of {@code poll.concurrency}
+     * workers. A project that fails or exceeds {@code poll.project.timeout} is
+     * logged and skipped, the other projects are still processed.
+     * 
+     * @return The discussions created for all projects
+     * @throws InterruptedException If interrupted while waiting for the projects
+     */
+    public List<Discussion> poll() throws InterruptedException {
+        var pendingProjects = new LinkedHashMap<Long, Future<List<Discussion>>>();
         for (Long projectId : projectIds) {
-            projects.add(gitLab.getProjectById(projectId));
+            pendingProjects.put(projectId, submitProject(projectId));
         }
         List<Discussion> resultingGitLabDiscussions = new ArrayList<>();
-        for (Project project : projects) {
-            resultingGitLabDiscussions.addAll(processProject(project));
+        for (var pendingProject : pendingProjects.entrySet()) {
+            resultingGitLabDiscussions.addAll(awaitProject(pendingProject.getKey(), pendingProject.getValue()));
         }
+        repositoryManager.evictIdleWorktrees();
         LOG.info("Finished polling all projects");
         return resultingGitLabDiscussions;
     }
 
-    private Path repositoryPathFromProject(Project project) throws IOException {
-        return projectsPath.orElse(Files.createTempDirectory(null)).resolve(project.getPath());
+    private Future<List<Discussion>> submitProject(Long projectId) {
+        var task = new FutureTask<List<Discussion>>(() -> processProject(gitLab.getProjectById(projectId)));
+        projectExecutor.execute(() -> {
+            // The timeout starts when a worker picks up the project, not when it is queued
+            var timeout = projectTimeout.map(duration -> projectTimeoutScheduler.schedule(() -> task.cancel(true),
+                    duration.toMillis(), TimeUnit.MILLISECONDS));
+            try {
+                task.run();
+            } finally {
+                timeout.ifPresent(scheduledTimeout -> scheduledTimeout.cancel(false));
+            }
+        });
+        return task;
+    }
+
+    private List<Discussion> awaitProject(Long projectId, Future<List<Discussion>> pendingProject)
+            throws InterruptedException {
+        try {
+            return pendingProject.get();
+        } catch (CancellationException ce) {
+            LOG.errorf("Processing project %d exceeded the timeout of %s and was interrupted", projectId,
+                    projectTimeout.orElse(null));
+        } catch (ExecutionException ee) {
+            LOG.errorf(ee.getCause(), "Processing project %d failed, continuing with the other projects", projectId);
+        }
+        return List.of();
+    }
+
+    @Transactional
+    void updateMergeRequestsListedAt(RefactoryProject refactoryProject, Date listedAt) {
+        RefactoryProject.update("mergeRequestsListedAt = ?1 where id = ?2", listedAt, refactoryProject.id);
+        refactoryProject.mergeRequestsListedAt = listedAt;
     }
 
     @Transactional
-    @TransactionConfiguration(timeout = Integer.MAX_VALUE)
     RefactoryProject persistRefactoryProjectIfNotPersisted(Project project) {
         var refactoryProject = RefactoryProject.fromGitLabProject(project);
         var refactoryProjectOptional = refactoryProject.findByGitLabId();
@@ -242,17 +582,16 @@ public class Poller {
         return refactoryProject;
     }
 
-    @Scheduled(every = "5m")
-    public void pollForMergeRequests() throws GitLabApiException, IOException, GitAPIException, OrtException,
-            URISyntaxException, IllegalStateException {
-
+    /**
+     * With webhooks enabled this is a reconciliation sweep for merge requests of
+     * which no event was received, its interval can then be increased.
+     */
+    @Scheduled(every = "${poll.interval:5m}", concurrentExecution = ConcurrentExecution.SKIP)
+    public void pollForMergeRequests() throws InterruptedException {
+        // Overlapping polls are skipped instead of pausing the scheduler, which would
+        // also stop draining the discussion outbox
         if (scheduler.isRunning()) {
-            scheduler.pause();
-            try {
-                poll();
-            } finally {
-                scheduler.resume();
-            }
+            poll();
         }
     }
 
@@ -0,0 +1,137 @@
+package com.github.refactoringai.refactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.transaction.Transactional;
+
+import com.github.refactoringai.refactory.entities.CachedPrediction;
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Remembers the predictions of models by the model version and a hash of the
+ * feature vector, so units with the exact same features as a scored unit, such as
+ * unchanged or copied methods, are not scored again. Optionally the predictions
+ * are also stored in the database so they survive restarts.
+ */
+@ApplicationScoped
+public class PredictionCache {
+
+    private static final Logger LOG = Logger.getLogger(PredictionCache.class);
+
+    @ConfigProperty(name = "prediction.cache.enabled", defaultValue = "true")
+    Boolean enabled;
+
+    @ConfigProperty(name = "prediction.cache.max.size", defaultValue = "100000")
+    Long maxSize;
+
+    @ConfigProperty(name = "prediction.cache.persistent", defaultValue = "false")
+    Boolean persistent;
+
+    private Cache<String, CachedPrediction> predictions;
+
+    @PostConstruct
+    void buildCache() {
+        predictions = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+    }
+
+    /**
+     * Sets the prediction of the units that have been scored before.
+     * 
+     * @param loadedModel      The model the units are scored with
+     * @param refactoringUnits The units to look up, of one model
+     * @return The units that have not been scored before
+     */
+    public List<RefactoringUnit> applyCached(LoadedModel loadedModel, List<RefactoringUnit> refactoringUnits) {
+        if (!enabled) {
+            return refactoringUnits;
+        }
+        var keys = refactoringUnits.stream().map(unit -> key(loadedModel, unit)).collect(Collectors.toList());
+        Map<String, CachedPrediction> found = new HashMap<>();
+        for (var key : keys) {
+            var cachedPrediction = predictions.getIfPresent(key);
+            if (cachedPrediction != null) {
+                found.put(key, cachedPrediction);
+            }
+        }
+        if (persistent && found.size() < keys.size()) {
+            var missing = keys.stream().filter(key -> !found.containsKey(key)).distinct()
+                    .collect(Collectors.toList());
+            for (var cachedPrediction : CachedPrediction.findByKeys(missing)) {
+                predictions.put(cachedPrediction.key, cachedPrediction);
+                found.put(cachedPrediction.key, cachedPrediction);
+            }
+        }
+
+        var notCached = new ArrayList<RefactoringUnit>();
+        for (int i = 0; i < refactoringUnits.size(); i++) {
+            var refactoringUnit = refactoringUnits.get(i);
+            var cachedPrediction = found.get(keys.get(i));
+            if (cachedPrediction == null) {
+                notCached.add(refactoringUnit);
+            } else {
+                refactoringUnit.shouldRefactor = cachedPrediction.shouldRefactor;
+                refactoringUnit.shouldRefactorProbability = cachedPrediction.shouldRefactorProbability;
+            }
+        }
+        LOG.debugf("%d of %d units had a cached prediction, %s", refactoringUnits.size() - notCached.size(),
+                refactoringUnits.size(), getStats());
+        return notCached;
+    }
+
+    /**
+     * Remembers the predictions of scored units.
+     * 
+     * @param loadedModel      The model the units were scored with
+     * @param refactoringUnits The scored units
+     */
+    public void put(LoadedModel loadedModel, List<RefactoringUnit> refactoringUnits) {
+        if (!enabled || refactoringUnits.isEmpty()) {
+            return;
+        }
+        var scored = refactoringUnits.stream()
+                .map(unit -> CachedPrediction.of(key(loadedModel, unit), unit.shouldRefactor,
+                        unit.shouldRefactorProbability))
+                .collect(Collectors.toMap(cachedPrediction -> cachedPrediction.key, Function.identity(),
+                        (first, second) -> first));
+        predictions.putAll(scored);
+        if (persistent) {
+            store(scored);
+        }
+    }
+
+    @Transactional
+    void store(Map<String, CachedPrediction> scored) {
+        var alreadyStored = CachedPrediction.findByKeys(scored.keySet()).stream()
+                .map(cachedPrediction -> cachedPrediction.key).collect(Collectors.toSet());
+        scored.values().stream().filter(cachedPrediction -> !alreadyStored.contains(cachedPrediction.key))
+                .forEach(cachedPrediction -> cachedPrediction.persist());
+    }
+
+    public CacheStats getStats() {
+        return predictions.stats();
+    }
+
+    private static String key(LoadedModel loadedModel, RefactoringUnit refactoringUnit) {
+        var hasher = Hashing.murmur3_128().newHasher();
+        var features = refactoringUnit.features;
+        for (int column = 0; column < features.getColumns(); column++) {
+            hasher.putFloat(features.get(refactoringUnit.featureRow, column));
+        }
+        return loadedModel.getVersion() + ":" + hasher.hash();
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.github.refactoringai.refactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import com.github.refactoringai.refactory.entities.RefactoryMergeRequest;
+import com.github.refactoringai.refactory.entities.RefactoryProject;
+
+import org.gitlab4j.api.models.MergeRequest;
+
+/**
+ * Remembers which head commit of every merge request has been analysed, so
+ * only merge requests that are new since the last lookup have to be queried.
+ * A merge request has to be processed when it is unknown or when its head
+ * moved. Merge requests that are being processed are claimed, so the scheduled
+ * poll and webhooks never process the same merge request twice.
+ */
+@ApplicationScoped
+public class ProcessedMergeRequestIndex {
+
+    /**
+     * Merge requests processed before head commits were tracked, it is unknown
+     * what they were analysed at so they are not analysed again.
+     */
+    private static final String UNKNOWN_HEAD_SHA = "";
+
+    private final Map<Long, Map<Long, String>> analysedHeadShasByProjectId = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> claimedIidsByProjectId = new ConcurrentHashMap<>();
+
+    /**
+     * Filters out the merge requests that have already been processed at their
+     * current head or are being processed, and claims the remaining ones. The
+     * merge requests that are not in the index are looked up in one query.
+     * 
+     * @param refactoryProject The project of the merge requests
+     * @param mergeRequests    The merge requests to filter
+     * @param claimedElsewhere Receives the merge requests that have not been
+     *                         processed at their head yet but are claimed by
+     *                         someone else, their processing may still fail
+     * @return The merge requests that have not been processed at their head yet,
+     *         they have to be released when done
+     */
+    public List<MergeRequest> claimUnprocessed(RefactoryProject refactoryProject, List<MergeRequest> mergeRequests,
+            List<MergeRequest> claimedElsewhere) {
+        var analysedHeadShas = analysedHeadShas(refactoryProject);
+        var unknownIids = mergeRequests.stream().map(MergeRequest::getIid)
+                .filter(iid -> !analysedHeadShas.containsKey(iid)).collect(Collectors.toList());
+        RefactoryMergeRequest.findAnalysedHeadShas(refactoryProject, unknownIids).forEach(
+                (iid, headSha) -> analysedHeadShas.put(iid, headSha == null ? UNKNOWN_HEAD_SHA : headSha));
+        var claimedIids = claimedIidsByProjectId.computeIfAbsent(refactoryProject.id,
+                id -> ConcurrentHashMap.newKeySet());
+        var claimed = new ArrayList<MergeRequest>();
+        for (MergeRequest mergeRequest : mergeRequests) {
+            if (!needsAnalysis(analysedHeadShas.get(mergeRequest.getIid()), mergeRequest.getSha())) {
+                continue;
+            }
+            if (claimedIids.add(mergeRequest.getIid())) {
+                claimed.add(mergeRequest);
+            } else {
+                claimedElsewhere.add(mergeRequest);
+            }
+        }
+        return claimed;
+    }
+
+    public void markProcessed(RefactoryMergeRequest refactoryMergeRequest) {
+        analysedHeadShas(refactoryMergeRequest.project).put(refactoryMergeRequest.mergeRequestIid,
+                refactoryMergeRequest.headSha == null ? UNKNOWN_HEAD_SHA : refactoryMergeRequest.headSha);
+    }
+
+    public void release(RefactoryProject refactoryProject, Long mergeRequestIid) {
+        claimedIidsByProjectId.computeIfAbsent(refactoryProject.id, id -> ConcurrentHashMap.newKeySet())
+                .remove(mergeRequestIid);
+    }
+
+    private static boolean needsAnalysis(String analysedHeadSha, String headSha) {
+        if (analysedHeadSha == null) {
+            return true;
+        }
+        if (analysedHeadSha.equals(UNKNOWN_HEAD_SHA) || headSha == null) {
+            return false;
+        }
+        return !analysedHeadSha.equals(headSha);
+    }
+
+    private Map<Long, String> analysedHeadShas(RefactoryProject refactoryProject) {
+        return analysedHeadShasByProjectId.computeIfAbsent(refactoryProject.id, id -> new ConcurrentHashMap<>());
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.github.refactoringai.refactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.transaction.Transactional;
+
+import com.github.refactoringai.refactory.entities.FloatArrayConverter;
+import com.github.refactoringai.refactory.entities.RefactoryMergeRequest;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.hibernate.orm.panache.Panache;
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Moves the features of refactoring units persisted before they were packed
+ * from the raw_input table, one row per feature, to the packed_input column.
+ * Runs in the background after startup in batches of units, every batch in its
+ * own transaction. The raw_input table can be dropped once it is empty.
+ */
+@ApplicationScoped
+public class RawInputMigration {
+
+    private static final Logger LOG = Logger.getLogger(RawInputMigration.class);
+    private static final String RAW_INPUT_TABLE = "raw_input";
+
+    @ConfigProperty(name = "raw.input.migration.enabled", defaultValue = "true")
+    Boolean enabled;
+
+    @ConfigProperty(name = "raw.input.migration.batch.size", defaultValue = "1000")
+    Integer batchSize;
+
+    private final FloatArrayConverter floatArrayConverter = new FloatArrayConverter();
+
+    void onStart(@Observes StartupEvent startupEvent) {
+        if (!enabled) {
+            return;
+        }
+        var migration = new Thread(this::migrate, "raw-input-migration");
+        migration.setDaemon(true);
+        migration.start();
+    }
+
+    private void migrate() {
+        try {
+            if (!rawInputTableExists()) {
+                return;
+            }
+            long migrated = 0;
+            int batch;
+            while ((batch = migrateBatch()) > 0) {
+                migrated += batch;
+                LOG.debugf("Packed the features of %d refactoring units so far", migrated);
+            }
+            if (migrated > 0) {
+                LOG.infof("Packed the features of %d refactoring units, the raw_input table can be dropped once empty",
+                        migrated);
+            }
+        } catch (RuntimeException e) {
+            LOG.errorf(e, "Could not migrate the raw_input table, retrying on the next start");
+        }
+    }
+
+    @Transactional
+    public boolean rawInputTableExists() {
+        var tables = (Number) Panache.getEntityManager()
+                .createNativeQuery(
+                        "select count(*) from information_schema.tables where lower(table_name) = :tableName")
+                .setParameter("tableName", RAW_INPUT_TABLE).getSingleResult();
+        return tables.longValue() > 0;
+    }
+
+    /**
+     * Removes the raw_input rows of the units the bulk delete of
+     * {@link Poller#deleteOutdatedUnits} is about to remove, the bulk delete does
+     * not reach the unmapped table. Units that were not migrated yet would
+     * otherwise violate its foreign key.
+     */
+    @Transactional
+    public void deleteRawInput(RefactoryMergeRequest refactoryMergeRequest, Collection<String> newPaths) {
+        if (newPaths.isEmpty() || !rawInputTableExists()) {
+            return;
+        }
+        Panache.getEntityManager()
+                .createNativeQuery("delete from raw_input where refactoring_unit_id in (select id from refactoring_unit"
+                        + " where refactory_merge_request_id = :mergeRequestId and new_path in (:newPaths)"
+                        + " and was_recommended = false)")
+                .setParameter("mergeRequestId", refactoryMergeRequest.id).setParameter("newPaths", newPaths)
+                .executeUpdate();
+    }
+
+    /**
+     * Packs the features of a batch of units that still have rows in raw_input and
+     * removes those rows.
+     * 
+     * @return The amount of units migrated
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public int migrateBatch() {
+        var entityManager = Panache.getEntityManager();
+        List<Number> unitIds = entityManager
+                .createNativeQuery("select distinct refactoring_unit_id from raw_input order by refactoring_unit_id")
+                .setMaxResults(batchSize).getResultList();
+        if (unitIds.isEmpty()) {
+            return 0;
+        }
+        var ids = unitIds.stream().map(Number::longValue).collect(Collectors.toList());
+        List<Object[]> rows = entityManager
+                .createNativeQuery("select refactoring_unit_id, input, input_order from raw_input"
+                        + " where refactoring_unit_id in (:ids)")
+                .setParameter("ids", ids).getResultList();
+
+        Map<Long, TreeMap<Integer, Float>> featuresByUnitId = new HashMap<>();
+        for (Object[] row : rows) {
+            featuresByUnitId.computeIfAbsent(((Number) row[0]).longValue(), id -> new TreeMap<>())
+                    .put(((Number) row[2]).intValue(), ((Number) row[1]).floatValue());
+        }
+        for (var unitFeatures : featuresByUnitId.entrySet()) {
+            var values = new float[unitFeatures.getValue().size()];
+            var i = 0;
+            for (float value : unitFeatures.getValue().values()) {
+                values[i++] = value;
+            }
+            entityManager
+                    .createNativeQuery("update refactoring_unit set packed_input = :packedInput"
+                            + " where id = :id and packed_input is null")
+                    .setParameter("packedInput", floatArrayConverter.convertToDatabaseColumn(values))
+                    .setParameter("id", unitFeatures.getKey()).executeUpdate();
+        }
+        entityManager.createNativeQuery("delete from raw_input where refactoring_unit_id in (:ids)")
+                .setParameter("ids", ids).executeUpdate();
+        return ids.size();
+    }
+
+}
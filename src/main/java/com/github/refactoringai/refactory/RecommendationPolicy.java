@@ -0,0 +1,44 @@
+package com.github.refactoringai.refactory;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Decides which scored refactoring units qualify for a recommendation and how
+ * many recommendations a merge request gets.
+ */
+@ApplicationScoped
+public class RecommendationPolicy {
+
+    private static final Logger LOG = Logger.getLogger(RecommendationPolicy.class);
+
+    @ConfigProperty(name = "amount.of.recommendations", defaultValue = "2147483647")
+    Integer amountOfRecommendations;
+
+    @ConfigProperty(name = "min.certainty.recommend.threshold", defaultValue = "0.5")
+    Float minimumCertaintyToRecommendThreshold;
+
+    public int getAmountOfRecommendations() {
+        return amountOfRecommendations;
+    }
+
+    /**
+     * Whether the unit should be refactored with enough certainty and can be placed
+     * on the diff.
+     */
+    public boolean qualifies(RefactoringUnit refactoringUnit) {
+        if (!refactoringUnit.shouldRefactor
+                || refactoringUnit.shouldRefactorProbability < minimumCertaintyToRecommendThreshold) {
+            return false;
+        }
+        if (!refactoringUnit.postable) {
+            LOG.debugf("Not recommending %s, the diff shows none of its lines", refactoringUnit);
+        }
+        return refactoringUnit.postable;
+    }
+
+}
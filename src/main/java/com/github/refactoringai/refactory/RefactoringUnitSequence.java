@@ -0,0 +1,47 @@
+package com.github.refactoringai.refactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.transaction.Transactional;
+
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.jboss.logging.Logger;
+
+import io.quarkus.hibernate.orm.panache.Panache;
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Refactoring units used to take their ids from the shared hibernate_sequence,
+ * one call per unit. Their own sequence hands out
+ * {@link RefactoringUnit#ID_ALLOCATION_SIZE} ids per call, on startup it is
+ * moved past the ids already taken.
+ */
+@ApplicationScoped
+public class RefactoringUnitSequence {
+
+    private static final Logger LOG = Logger.getLogger(RefactoringUnitSequence.class);
+
+    @Transactional
+    void onStart(@Observes StartupEvent startupEvent) {
+        var entityManager = Panache.getEntityManager();
+        var maxId = (Long) entityManager.createQuery("select max(id) from RefactoringUnit").getSingleResult();
+        if (maxId == null) {
+            return;
+        }
+        var dialect = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect();
+        var next = (Number) entityManager
+                .createNativeQuery(dialect.getSequenceNextValString(RefactoringUnit.ID_SEQUENCE)).getSingleResult();
+        // The pooled optimizer hands out the ids up to the returned value
+        if (next.longValue() - RefactoringUnit.ID_ALLOCATION_SIZE < maxId) {
+            var restart = maxId + RefactoringUnit.ID_ALLOCATION_SIZE + 1;
+            entityManager.createNativeQuery(
+                    String.format("alter sequence %s restart with %d", RefactoringUnit.ID_SEQUENCE, restart))
+                    .executeUpdate();
+            LOG.infof("Moved %s to %d past the existing refactoring units", RefactoringUnit.ID_SEQUENCE, restart);
+        }
+    }
+
+}
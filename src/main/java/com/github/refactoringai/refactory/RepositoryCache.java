@@ -0,0 +1,210 @@
+package com.github.refactoringai.refactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.gitlab4j.api.models.Project;
+import org.jboss.logging.Logger;
+
+import io.quarkus.runtime.configuration.MemorySize;
+
+/**
+ * Keeps the clones of projects between polls. When {@code projects.path} is
+ * set the repositories are expected there and are left alone. Otherwise every
+ * project gets a directory named after its id in the cache, and the least
+ * recently used projects are removed when the cache outgrows its disk budget.
+ */
+@ApplicationScoped
+public class RepositoryCache {
+
+    private static final Logger LOG = Logger.getLogger(RepositoryCache.class);
+    private static final String REPOSITORY_DIRECTORY = "repository";
+
+    private final Optional<Path> projectsPath;
+    private final Path cacheRoot;
+    private final MemorySize maxCacheSize;
+
+    /**
+     * Guarded by this, per project id.
+     */
+    private final Map<Long, CacheEntry> entries = new HashMap<>();
+
+    private static class CacheEntry {
+        private final Path directory;
+        private long size;
+        private Instant lastUsed;
+        private int leases;
+
+        CacheEntry(Path directory, long size, Instant lastUsed) {
+            this.directory = directory;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * A repository that is in use and will not be evicted until closed.
+     */
+    public class Lease implements AutoCloseable {
+        private final Long projectId;
+        private final Path path;
+        private boolean closed;
+
+        Lease(Long projectId, Path path) {
+            this.projectId = projectId;
+            this.path = path;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public void close() {
+            synchronized (RepositoryCache.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            if (projectId != null) {
+                release(projectId);
+            }
+        }
+    }
+
+    /**
+     * Picks up the clones of earlier runs in the cache directory.
+     * 
+     * @param projectsPath The directory with the repositories of all projects, no
+     *                     cache is kept if present
+     * @param cachePath    The directory of the cache, a directory in the
+     *                     temporary directory if absent
+     * @param maxCacheSize The disk budget of the cache
+     */
+    @Inject
+    public RepositoryCache(@ConfigProperty(name = "projects.path") Optional<Path> projectsPath,
+            @ConfigProperty(name = "repository.cache.path") Optional<Path> cachePath,
+            @ConfigProperty(name = "repository.cache.max.size", defaultValue = "10G") MemorySize maxCacheSize) {
+        this.projectsPath = projectsPath;
+        this.cacheRoot = cachePath.orElse(Paths.get(System.getProperty("java.io.tmpdir"), "refactory-repositories"));
+        this.maxCacheSize = maxCacheSize;
+        if (projectsPath.isEmpty()) {
+            loadCache();
+        }
+    }
+
+    private void loadCache() {
+        try {
+            Files.createDirectories(cacheRoot);
+            // Pick up the clones of earlier runs, the modification time of the project
+            // directory is the moment it was last used
+            try (Stream<Path> projectDirectories = Files.list(cacheRoot)) {
+                for (Path projectDirectory : projectDirectories.filter(Files::isDirectory)
+                        .filter(directory -> directory.getFileName().toString().matches("\\d+"))
+                        .collect(Collectors.toList())) {
+                    var projectId = Long.valueOf(projectDirectory.getFileName().toString());
+                    entries.put(projectId, new CacheEntry(projectDirectory, sizeOf(projectDirectory),
+                            Files.getLastModifiedTime(projectDirectory).toInstant()));
+                }
+            }
+        } catch (IOException ioe) {
+            LOG.warnf(ioe, "Could not load repository cache at %s, continuing with what was loaded", cacheRoot);
+        }
+    }
+
+    /**
+     * Reserves the repository location of a project.
+     * 
+     * @param project The project to get the repository location of
+     * @return The lease on the location, which may not contain a clone yet
+     */
+    public Lease lease(Project project) throws IOException {
+        if (projectsPath.isPresent()) {
+            return new Lease(null, projectsPath.get().resolve(project.getPath()));
+        }
+        var projectDirectory = cacheRoot.resolve(project.getId().toString());
+        Files.createDirectories(projectDirectory);
+        var now = Instant.now();
+        Files.setLastModifiedTime(projectDirectory, FileTime.from(now));
+        synchronized (this) {
+            var entry = entries.computeIfAbsent(project.getId(), id -> new CacheEntry(projectDirectory, 0L, now));
+            entry.lastUsed = now;
+            entry.leases++;
+        }
+        return new Lease(project.getId(), projectDirectory.resolve(REPOSITORY_DIRECTORY));
+    }
+
+    private void release(Long projectId) {
+        CacheEntry entry;
+        synchronized (this) {
+            entry = entries.get(projectId);
+            entry.leases--;
+        }
+        // Measure outside the lock, the repository may have grown during the lease
+        long size = sizeOf(entry.directory);
+        synchronized (this) {
+            entry.size = size;
+            evictOverBudget();
+        }
+    }
+
+    private void evictOverBudget() {
+        long budget = maxCacheSize.asLongValue();
+        long total = entries.values().stream().mapToLong(entry -> entry.size).sum();
+        if (total <= budget) {
+            return;
+        }
+        List<Map.Entry<Long, CacheEntry>> evictable = entries.entrySet().stream()
+                .filter(entry -> entry.getValue().leases == 0)
+                .sorted(Comparator.comparing(entry -> entry.getValue().lastUsed)).collect(Collectors.toList());
+        for (Map.Entry<Long, CacheEntry> entry : evictable) {
+            if (total <= budget) {
+                break;
+            }
+            LOG.infof("Evicting repository of project %d to stay within the cache budget of %d bytes",
+                    entry.getKey(), budget);
+            try {
+                FileUtils.delete(entry.getValue().directory.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+                total -= entry.getValue().size;
+                entries.remove(entry.getKey());
+            } catch (IOException ioe) {
+                LOG.warnf(ioe, "Could not evict %s", entry.getValue().directory);
+            }
+        }
+    }
+
+    private static long sizeOf(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException ioe) {
+                    // Removed while walking
+                    return 0L;
+                }
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            LOG.debugf(e, "Could not determine the size of %s", directory);
+            return 0L;
+        }
+    }
+
+}
@@ -0,0 +1,361 @@
+package com.github.refactoringai.refactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+@ApplicationScoped
+public class RepositoryManager {
+
+    private static final Logger LOG = Logger.getLogger(RepositoryManager.class);
+    private static final String MERGE_REQUEST_REFSPEC = "+refs/merge-requests/%d/head:refs/remotes/origin/merge-requests/%d";
+
+    @ConfigProperty(name = "git.fetch.before.checkout", defaultValue = "true")
+    Boolean fetchBeforeCheckout;
+
+    @ConfigProperty(name = "git.username")
+    String gitUsername;
+
+    @ConfigProperty(name = "gitlab.oauth2.token")
+    String gitLabAccessToken;
+
+    @ConfigProperty(name = "git.fetch.scope", defaultValue = "ALL")
+    FetchScope fetchScope;
+
+    @ConfigProperty(name = "git.fetch.skip.present", defaultValue = "true")
+    Boolean skipFetchWhenPresent;
+
+    @ConfigProperty(name = "git.clone.all.branches", defaultValue = "true")
+    Boolean cloneAllBranches;
+
+    @ConfigProperty(name = "git.checkout.mode", defaultValue = "FORCED")
+    CheckoutMode checkoutMode;
+
+    @ConfigProperty(name = "git.worktree.pool.size", defaultValue = "2")
+    Integer worktreePoolSize;
+
+    @ConfigProperty(name = "git.worktree.max.idle", defaultValue = "1h")
+    Duration worktreeMaxIdle;
+
+    /**
+     * A repository has a single working directory, only one commit can be checked
+     * out and analysed at a time.
+     */
+    private final Map<Path, Semaphore> workingDirectoryLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Opening, cloning and fetching a repository is not safe to do concurrently.
+     */
+    private final Map<Path, Object> repositoryLocks = new ConcurrentHashMap<>();
+
+    private final Map<Path, WorktreePool> worktreePools = new ConcurrentHashMap<>();
+
+    public CheckoutMode getCheckoutMode() {
+        return checkoutMode;
+    }
+
+    /**
+     * Checks out the sha in the working directory of the repository, or in a
+     * working tree of the repository when {@code git.checkout.mode} is
+     * {@link CheckoutMode#WORKTREE}. With {@link CheckoutMode#OBJECT_DATABASE} only
+     * the given paths are written to a temporary directory. The repository is
+     * cloned first if it does not exist yet. The checked out tree is reserved until
+     * the returned working copy is closed.
+     * 
+     * @param repositoryPath  The location of the repository
+     * @param cloneUri        The uri to clone the repository from if it is absent
+     * @param sha             The commit to check out
+     * @param mergeRequestIid The merge request the commit belongs to
+     * @param paths           The paths relative to the repository root that will
+     *                        be analysed
+     * @return The reserved working copy
+     * @throws InterruptedException If interrupted while waiting for a working
+     *                              directory to become available
+     */
+    public WorkingCopy checkout(Path repositoryPath, String cloneUri, String sha, Long mergeRequestIid,
+            Collection<Path> paths) throws IOException, GitAPIException, InterruptedException {
+        if (checkoutMode == CheckoutMode.WORKTREE) {
+            return checkoutWorktree(repositoryPath, cloneUri, sha, mergeRequestIid);
+        } else if (checkoutMode == CheckoutMode.OBJECT_DATABASE) {
+            return readFromObjectDatabase(repositoryPath, cloneUri, sha, mergeRequestIid, paths);
+        }
+        var lock = workingDirectoryLocks.computeIfAbsent(normalize(repositoryPath), path -> new Semaphore(1));
+        lock.acquire();
+        try {
+            prepareRepository(repositoryPath, cloneUri, sha, mergeRequestIid);
+        } catch (IOException | GitAPIException | RuntimeException e) {
+            lock.release();
+            throw e;
+        }
+        return new WorkingCopy(repositoryPath, lock::release);
+    }
+
+    /**
+     * Determines which files differ between two commits, by comparing the blobs
+     * of both trees.
+     * 
+     * @param repositoryPath  The location of the repository
+     * @param cloneUri        The uri to clone the repository from if it is absent
+     * @param oldSha          The commit that was analysed before
+     * @param newSha          The commit to compare it to
+     * @param mergeRequestIid The merge request the commits belong to
+     * @return The changed paths relative to the repository root, empty if the
+     *         old commit is no longer available (e.g. after a force push)
+     */
+    public Optional<Set<Path>> changedPaths(Path repositoryPath, String cloneUri, String oldSha, String newSha,
+            Long mergeRequestIid) throws IOException, GitAPIException {
+        try (Git git = openAndFetch(repositoryPath, cloneUri, newSha, mergeRequestIid);
+                var reader = git.getRepository().newObjectReader();
+                var revWalk = new RevWalk(reader);
+                var treeWalk = new TreeWalk(reader)) {
+            if (!isCommitPresent(git, oldSha)) {
+                return Optional.empty();
+            }
+            treeWalk.addTree(revWalk.parseCommit(ObjectId.fromString(oldSha)).getTree());
+            treeWalk.addTree(revWalk.parseCommit(resolve(git, newSha)).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            var changedPaths = new HashSet<Path>();
+            while (treeWalk.next()) {
+                changedPaths.add(Paths.get(treeWalk.getPathString()));
+            }
+            return Optional.of(changedPaths);
+        }
+    }
+
+    /**
+     * Removes the working trees that have been idle for longer than
+     * {@code git.worktree.max.idle}.
+     */
+    public void evictIdleWorktrees() {
+        worktreePools.values().forEach(pool -> pool.evictIdle(worktreeMaxIdle));
+    }
+
+    private WorkingCopy checkoutWorktree(Path repositoryPath, String cloneUri, String sha, Long mergeRequestIid)
+            throws IOException, GitAPIException, InterruptedException {
+        Path objectsPath;
+        try (Git git = openAndFetch(repositoryPath, cloneUri, sha, mergeRequestIid)) {
+            objectsPath = git.getRepository().getDirectory().toPath().resolve("objects").toAbsolutePath();
+        }
+
+        var pool = worktreePool(repositoryPath);
+        var worktree = pool.acquire();
+        try (Git git = openOrCreateWorktree(worktree, objectsPath)) {
+            git.checkout().setName(sha).setForced(true).call();
+        } catch (IOException | GitAPIException | RuntimeException e) {
+            pool.discard(worktree);
+            throw e;
+        }
+        return new WorkingCopy(worktree, () -> pool.release(worktree));
+    }
+
+    /**
+     * Writes the blobs of the paths at the sha to a temporary directory, mirroring
+     * their location in the repository. The directory is removed when the working
+     * copy is closed.
+     */
+    private WorkingCopy readFromObjectDatabase(Path repositoryPath, String cloneUri, String sha,
+            Long mergeRequestIid, Collection<Path> paths) throws IOException, GitAPIException {
+        var snapshot = Files.createTempDirectory("refactory-");
+        var workingCopy = new WorkingCopy(snapshot, () -> deleteDirectory(snapshot));
+        if (paths.isEmpty()) {
+            return workingCopy;
+        }
+        try (Git git = openAndFetch(repositoryPath, cloneUri, sha, mergeRequestIid);
+                var reader = git.getRepository().newObjectReader();
+                var revWalk = new RevWalk(reader);
+                var treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(revWalk.parseCommit(resolve(git, sha)).getTree());
+            treeWalk.setRecursive(true);
+            // Git paths always use forward slashes
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(paths.stream()
+                    .map(path -> path.toString().replace('\\', '/')).collect(Collectors.toList())));
+            while (treeWalk.next()) {
+                var fileMode = treeWalk.getFileMode(0);
+                if (fileMode != FileMode.REGULAR_FILE && fileMode != FileMode.EXECUTABLE_FILE) {
+                    // Submodules and symbolic links have no file content to analyse
+                    LOG.debugf("Skipping %s, it is not a regular file", treeWalk.getPathString());
+                    continue;
+                }
+                var target = snapshot.resolve(treeWalk.getPathString());
+                Files.createDirectories(target.getParent());
+                try (var out = Files.newOutputStream(target)) {
+                    reader.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).copyTo(out);
+                }
+            }
+        } catch (IOException | GitAPIException | RuntimeException e) {
+            workingCopy.close();
+            throw e;
+        }
+        return workingCopy;
+    }
+
+    private void deleteDirectory(Path directory) {
+        try {
+            FileUtils.delete(directory.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+        } catch (IOException ioe) {
+            LOG.warnf(ioe, "Could not delete %s", directory);
+        }
+    }
+
+    /**
+     * Opens the working tree, or creates it as a repository without objects of its
+     * own that borrows all objects of the main repository through the git
+     * alternates mechanism. JGit does not support linked worktrees, this gives the
+     * same sharing of the object store.
+     */
+    private Git openOrCreateWorktree(Path worktree, Path objectsPath) throws IOException, GitAPIException {
+        var alternates = worktree.resolve(".git").resolve("objects").resolve("info").resolve("alternates");
+        if (!Files.isRegularFile(alternates)) {
+            Git.init().setDirectory(worktree.toFile()).call().close();
+            Files.createDirectories(alternates.getParent());
+            Files.writeString(alternates, objectsPath + "\n");
+        }
+        // Open after writing the alternates, they are read when the repository is opened
+        return Git.open(worktree.toFile());
+    }
+
+    private WorktreePool worktreePool(Path repositoryPath) throws IOException {
+        var key = normalize(repositoryPath);
+        synchronized (worktreePools) {
+            var pool = worktreePools.get(key);
+            if (pool == null) {
+                var worktreesPath = key.resolveSibling(key.getFileName() + ".worktrees");
+                pool = new WorktreePool(worktreesPath, worktreePoolSize);
+                worktreePools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    private Object repositoryLock(Path repositoryPath) {
+        return repositoryLocks.computeIfAbsent(normalize(repositoryPath), path -> new Object());
+    }
+
+    private static Path normalize(Path repositoryPath) {
+        return repositoryPath.toAbsolutePath().normalize();
+    }
+
+    private Git openOrCloneRepository(Path repositoryPath, String cloneUri, CredentialsProvider credentialsProvider)
+            throws IOException, GitAPIException {
+
+        try {
+            // TODO allow for specification of other git folders than .git
+            var dotGit = repositoryPath.resolve(".git");
+            if (Files.isDirectory(dotGit)) {
+                return Git.open(repositoryPath.toFile());
+            }
+            // is repo a submodule, in submodules there is a file with a path to the git
+            // objects instead of a .git folder (e.g. gitdir: ../../../../.git/modules/refactory-test\n hopefully git
+            // doesn't change the format of this):
+            var dotGitContents = Files.readString(dotGit);
+
+            // Trim necesarry for linebreak at the end of the file
+            var splitDotGitContents  = dotGitContents.split(" ")[1].trim();
+            var gitFilesPath = repositoryPath.resolve(splitDotGitContents).normalize();
+            return Git.open(gitFilesPath.toFile());
+        } catch (RepositoryNotFoundException rnfe) {
+            LOG.infof("Repository not found at %s trying to clone from %s", repositoryPath, cloneUri);
+            Files.createDirectories(repositoryPath);
+            try {
+                // Only the forced mode uses the working directory of the repository itself
+                return Git.cloneRepository().setCloneAllBranches(cloneAllBranches)
+                        .setNoCheckout(checkoutMode != CheckoutMode.FORCED).setURI(cloneUri)
+                        .setDirectory(repositoryPath.toFile()).setCredentialsProvider(credentialsProvider).call();
+            } catch (GitAPIException gae) {
+                LOG.errorf(rnfe, "Could not open repo at %s", repositoryPath);
+                LOG.errorf(gae, "Could not clone %s Exiting", cloneUri);
+                throw gae;
+            }
+        }
+    }
+
+    private void prepareRepository(Path repositoryPath, String cloneUri, String sha, Long mergeRequestIid)
+            throws IOException, GitAPIException {
+        try (Git git = openAndFetch(repositoryPath, cloneUri, sha, mergeRequestIid)) {
+            git.checkout().setName(sha).setForced(true).call();
+        }
+    }
+
+    /**
+     * Opens the repository, cloning it if it is absent, and fetches if enabled.
+     * Checking out is left to the caller.
+     */
+    private Git openAndFetch(Path repositoryPath, String cloneUri, String sha, Long mergeRequestIid)
+            throws IOException, GitAPIException {
+        var credentialsProvider = new UsernamePasswordCredentialsProvider(gitUsername, gitLabAccessToken);
+        synchronized (repositoryLock(repositoryPath)) {
+            var git = openOrCloneRepository(repositoryPath, cloneUri, credentialsProvider);
+            try {
+                fetchIfEnabled(git, credentialsProvider, sha, mergeRequestIid);
+            } catch (IOException | GitAPIException | RuntimeException e) {
+                git.close();
+                throw e;
+            }
+            return git;
+        }
+    }
+
+    private void fetchIfEnabled(Git git, CredentialsProvider credentialsProvider, String sha, Long mergeRequestIid)
+            throws IOException, GitAPIException {
+        if (!fetchBeforeCheckout) {
+            return;
+        }
+        if (skipFetchWhenPresent && isCommitPresent(git, sha)) {
+            LOG.debugf("Commit %s is already present, skipping fetch", sha);
+            return;
+        }
+        // TODO allow for specification of other remotes than origin
+        var fetch = git.fetch().setCredentialsProvider(credentialsProvider).setRemote("origin");
+        if (fetchScope == FetchScope.MERGE_REQUEST) {
+            // Also covers merge requests from forks, whose commits are not on a branch of origin
+            fetch.setRefSpecs(new RefSpec(String.format(MERGE_REQUEST_REFSPEC, mergeRequestIid, mergeRequestIid)));
+        }
+        fetch.call();
+    }
+
+    private ObjectId resolve(Git git, String sha) throws IOException {
+        ObjectId commitId = git.getRepository().resolve(sha);
+        if (commitId == null) {
+            throw new IOException(String.format("Commit %s is not present in %s", sha, git.getRepository()));
+        }
+        return commitId;
+    }
+
+    private boolean isCommitPresent(Git git, String sha) throws IOException {
+        if (!ObjectId.isId(sha)) {
+            return false;
+        }
+        return git.getRepository().getObjectDatabase().has(ObjectId.fromString(sha));
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.github.refactoringai.refactory;
+
+/**
+ * Which directories CK gives the parser to resolve types against.
+ */
+public enum SourcepathScope {
+    /**
+     * All directories of the repository.
+     */
+    REPOSITORY,
+    /**
+     * Only the directories of the module of the changed files, the nearest
+     * directory with a Maven or Gradle build file. The changed files of every
+     * module are analysed separately. Types of other modules are not resolved, so
+     * metrics that depend on resolving them can differ from the repository scope.
+     */
+    MODULE
+}
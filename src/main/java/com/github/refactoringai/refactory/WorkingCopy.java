@@ -0,0 +1,34 @@
+package com.github.refactoringai.refactory;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A checked out tree of a repository at a certain commit. The tree stays
+ * reserved for its holder until it is closed, after which it may be reused for
+ * another commit.
+ */
+public class WorkingCopy implements AutoCloseable {
+
+    private final Path path;
+    private final Runnable onClose;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    WorkingCopy(Path path, Runnable onClose) {
+        this.path = path;
+        this.onClose = onClose;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() {
+        // Closing twice would release someone else's reservation
+        if (closed.compareAndSet(false, true)) {
+            onClose.run();
+        }
+    }
+
+}
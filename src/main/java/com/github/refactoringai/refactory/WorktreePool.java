@@ -0,0 +1,119 @@
+package com.github.refactoringai.refactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.util.FileUtils;
+import org.jboss.logging.Logger;
+
+/**
+ * A bounded set of working trees of one repository. Idle working trees are
+ * reused so a checkout only has to touch the files that differ from the commit
+ * that was checked out before.
+ */
+class WorktreePool {
+
+    private static final Logger LOG = Logger.getLogger(WorktreePool.class);
+    private static final String WORKTREE_PREFIX = "worktree-";
+
+    private final Path worktreesPath;
+    private final Semaphore available;
+    private final Deque<Path> idle = new ArrayDeque<>();
+    private final Map<Path, Instant> lastUsed = new HashMap<>();
+    private int created;
+
+    WorktreePool(Path worktreesPath, int size) throws IOException {
+        this.worktreesPath = worktreesPath;
+        this.available = new Semaphore(size);
+        Files.createDirectories(worktreesPath);
+        // Reuse the working trees of an earlier run
+        try (Stream<Path> existing = Files.list(worktreesPath)) {
+            idle.addAll(existing.filter(Files::isDirectory).collect(Collectors.toList()));
+        }
+        idle.forEach(worktree -> lastUsed.put(worktree, Instant.now()));
+        created = idle.size();
+    }
+
+    /**
+     * Reserves a working tree, blocks while all working trees are in use.
+     * 
+     * @return The directory of the working tree, it may not exist yet
+     * @throws InterruptedException If interrupted while waiting
+     */
+    Path acquire() throws InterruptedException {
+        available.acquire();
+        synchronized (this) {
+            var worktree = idle.pollFirst();
+            if (worktree != null) {
+                return worktree;
+            }
+            Path newWorktree;
+            do {
+                newWorktree = worktreesPath.resolve(WORKTREE_PREFIX + created++);
+            } while (Files.exists(newWorktree));
+            return newWorktree;
+        }
+    }
+
+    void release(Path worktree) {
+        synchronized (this) {
+            // Most recently used first, it is the most likely to be close to the next commit
+            idle.addFirst(worktree);
+            lastUsed.put(worktree, Instant.now());
+        }
+        available.release();
+    }
+
+    /**
+     * Removes a working tree that is in an unknown state, e.g. after a failed
+     * checkout.
+     * 
+     * @param worktree The reserved working tree
+     */
+    void discard(Path worktree) {
+        try {
+            delete(worktree);
+        } finally {
+            available.release();
+        }
+    }
+
+    /**
+     * Removes the idle working trees that have not been used for the given
+     * duration.
+     * 
+     * @param maxIdle How long a working tree may stay unused
+     */
+    synchronized void evictIdle(Duration maxIdle) {
+        var threshold = Instant.now().minus(maxIdle);
+        Iterator<Path> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            var worktree = iterator.next();
+            if (lastUsed.getOrDefault(worktree, Instant.MIN).isBefore(threshold)) {
+                iterator.remove();
+                lastUsed.remove(worktree);
+                delete(worktree);
+            }
+        }
+    }
+
+    private void delete(Path worktree) {
+        try {
+            FileUtils.delete(worktree.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+        } catch (IOException ioe) {
+            LOG.warnf(ioe, "Could not delete working tree %s", worktree);
+        }
+    }
+
+}
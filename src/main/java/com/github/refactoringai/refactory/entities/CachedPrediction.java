@@ -0,0 +1,48 @@
+package com.github.refactoringai.refactory.entities;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.transaction.Transactional;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+
+/**
+ * A prediction of a model for a feature vector, identified by the model version
+ * and the hash of the vector.
+ */
+@Entity
+@Table(name = "prediction_cache")
+public class CachedPrediction extends PanacheEntityBase {
+
+    @Id
+    @Column(name = "prediction_key")
+    public String key;
+
+    @Column(name = "should_refactor", nullable = false)
+    public Boolean shouldRefactor;
+
+    @Column(name = "should_refactor_probability", nullable = false)
+    public Float shouldRefactorProbability;
+
+    @Transactional
+    public static List<CachedPrediction> findByKeys(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+        return list("key in ?1", keys);
+    }
+
+    public static CachedPrediction of(String key, Boolean shouldRefactor, Float shouldRefactorProbability) {
+        var cachedPrediction = new CachedPrediction();
+        cachedPrediction.key = key;
+        cachedPrediction.shouldRefactor = shouldRefactor;
+        cachedPrediction.shouldRefactorProbability = shouldRefactorProbability;
+        return cachedPrediction;
+    }
+
+}
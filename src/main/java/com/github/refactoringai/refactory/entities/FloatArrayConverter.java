@@ -0,0 +1,36 @@
+package com.github.refactoringai.refactory.entities;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Stores a float array as its little endian IEEE 754 bytes, four bytes per
+ * value.
+ */
+@Converter
+public class FloatArrayConverter implements AttributeConverter<float[], byte[]> {
+
+    @Override
+    public byte[] convertToDatabaseColumn(float[] values) {
+        if (values == null) {
+            return null;
+        }
+        var buffer = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    @Override
+    public float[] convertToEntityAttribute(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        var values = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+        return values;
+    }
+
+}
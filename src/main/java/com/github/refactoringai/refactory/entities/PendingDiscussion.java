@@ -0,0 +1,109 @@
+package com.github.refactoringai.refactory.entities;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToOne;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.gitlab4j.api.models.DiffRef;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+
+/**
+ * A recommendation that still has to be placed as a GitLab discussion. Written
+ * in the same transaction as its refactoring unit and removed once the
+ * discussion is placed or given up on, see
+ * {@link com.github.refactoringai.refactory.DiscussionPublisher}.
+ */
+@Entity
+@Table(name = "pending_discussion")
+public class PendingDiscussion extends PanacheEntity {
+
+    private static final int MAX_BODY_LENGTH = 4096;
+
+    @OneToOne(optional = false)
+    @JoinColumn(name = "refactoring_unit_id", nullable = false, unique = true)
+    public RefactoringUnit refactoringUnit;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "refactory_merge_request_id", nullable = false)
+    public RefactoryMergeRequest refactoryMergeRequest;
+
+    /**
+     * The order in which the recommendations are placed, the most certain first.
+     */
+    @Column(name = "recommendation_order", nullable = false)
+    public Integer rank;
+
+    @Column(name = "body", nullable = false, length = MAX_BODY_LENGTH)
+    public String body;
+
+    @Column(name = "base_sha", nullable = false)
+    public String baseSha;
+
+    @Column(name = "start_sha", nullable = false)
+    public String startSha;
+
+    @Column(name = "head_sha", nullable = false)
+    public String headSha;
+
+    @Column(name = "old_path", nullable = false)
+    public String oldPath;
+
+    @Column(name = "new_path", nullable = false)
+    public String newPath;
+
+    @Column(name = "old_line")
+    public Integer oldLine;
+
+    @Column(name = "new_line")
+    public Integer newLine;
+
+    /**
+     * Set right before the discussion is created. A pending discussion that was
+     * attempted before may already be placed, it is looked up before it is
+     * created again.
+     */
+    @Column(name = "attempted", nullable = false)
+    public Boolean attempted;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "created_at", nullable = false)
+    public Date createdAt;
+
+    public static PendingDiscussion fromRefactoringUnit(RefactoringUnit refactoringUnit, DiffRef diffRef, String body,
+            int rank) {
+        var pendingDiscussion = new PendingDiscussion();
+        pendingDiscussion.refactoringUnit = refactoringUnit;
+        pendingDiscussion.refactoryMergeRequest = refactoringUnit.refactoryMergeRequest;
+        pendingDiscussion.rank = rank;
+        pendingDiscussion.body = body;
+        pendingDiscussion.baseSha = diffRef.getBaseSha();
+        pendingDiscussion.startSha = diffRef.getStartSha();
+        pendingDiscussion.headSha = diffRef.getHeadSha();
+        pendingDiscussion.oldPath = refactoringUnit.oldPath;
+        pendingDiscussion.newPath = refactoringUnit.newPath;
+        if (refactoringUnit.position != null) {
+            pendingDiscussion.oldLine = refactoringUnit.position.getOldLine();
+            pendingDiscussion.newLine = refactoringUnit.position.getNewLine();
+        } else {
+            pendingDiscussion.newLine = refactoringUnit.lineNumber;
+        }
+        pendingDiscussion.attempted = false;
+        pendingDiscussion.createdAt = new Date();
+        return pendingDiscussion;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PendingDiscussion [refactoringUnit=%s, newPath=%s, newLine=%s, oldLine=%s, attempted=%s]",
+                refactoringUnit.id, newPath, newLine, oldLine, attempted);
+    }
+
+}
@@ -2,27 +2,49 @@ package com.github.refactoringai.refactory.entities;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
 
-import javax.persistence.CollectionTable;
 import javax.persistence.Column;
-import javax.persistence.ElementCollection;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.OrderColumn;
+import javax.persistence.PrePersist;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import com.github.refactoringai.refactory.DiffHunks;
+import com.github.refactoringai.refactory.FeatureMatrix;
 
 import org.gitlab4j.api.models.Diff;
 
-import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
 
 @Entity
 @Table(name = "refactoring_unit")
-public class RefactoringUnit extends PanacheEntity implements Comparable<RefactoringUnit> {
+public class RefactoringUnit extends PanacheEntityBase implements Comparable<RefactoringUnit> {
+
+    public static final String ID_SEQUENCE = "refactoring_unit_seq";
+
+    /**
+     * Ids handed out per sequence call, units are persisted by the hundreds.
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    /**
+     * Room for 16384 features.
+     */
+    private static final int MAX_PACKED_INPUT_LENGTH = 65536;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
+    public Long id;
 
     @Column(name = "old_path", nullable = false)
     public String oldPath;
@@ -50,27 +72,72 @@ public class RefactoringUnit extends PanacheEntity implements Comparable<Refacto
     @JoinColumn(name = "model_id", nullable = false)
     public Model model;
 
-    @ElementCollection
-    @OrderColumn
-    @CollectionTable(name = "raw_input", joinColumns = @JoinColumn(name = "refactoring_unit_id"))
-    public List<Float> input;
+    /**
+     * The features the unit was scored on, packed by {@link FloatArrayConverter}.
+     * Units persisted before were stored in the raw_input table, see
+     * {@link com.github.refactoringai.refactory.RawInputMigration}.
+     */
+    @Convert(converter = FloatArrayConverter.class)
+    @Column(name = "packed_input", length = MAX_PACKED_INPUT_LENGTH)
+    public float[] input;
+
+    /**
+     * The matrix holding the features of this unit while it is being analysed,
+     * {@link #input} is only filled from it when the unit is persisted.
+     */
+    @Transient
+    public FeatureMatrix features;
+
+    @Transient
+    public int featureRow;
+
+    /**
+     * The line of the diff to place a recommendation on, null to use
+     * {@link #lineNumber} when the diff is not known.
+     */
+    @Transient
+    public DiffHunks.Position position;
+
+    /**
+     * False when the diff shows no line of this unit, GitLab would reject a
+     * recommendation on it.
+     */
+    @Transient
+    public boolean postable = true;
 
     @Column(name = "unit_name", nullable = false)
     public String unitName;
 
-    public static RefactoringUnit createRefactoringUnit(Diff diff, Model model, int lineNumber, Float[] input,
-            String unitName) {
+    public static RefactoringUnit createRefactoringUnit(Diff diff, Model model, int lineNumber,
+            FeatureMatrix features, int featureRow, String unitName) {
         var refactoringUnit = new RefactoringUnit();
         refactoringUnit.model = model;
         refactoringUnit.oldPath = diff.getOldPath();
         refactoringUnit.newPath = diff.getNewPath();
         refactoringUnit.lineNumber = lineNumber;
-        refactoringUnit.input = new ArrayList<>( Arrays.asList(input));
+        refactoringUnit.features = features;
+        refactoringUnit.featureRow = featureRow;
         refactoringUnit.unitName = unitName;
         refactoringUnit.wasRecommended = false;
         return refactoringUnit;
     }
 
+    /**
+     * Copies the features to {@link #input} and releases the feature matrix, for
+     * units that are kept longer than their matrix is needed.
+     */
+    public void detachFeatures() {
+        copyFeaturesToInput();
+        features = null;
+    }
+
+    @PrePersist
+    void copyFeaturesToInput() {
+        if (input == null && features != null) {
+            input = features.getRow(featureRow);
+        }
+    }
+
     public Path getNewPath() {
         return Paths.get(newPath);
     }
@@ -88,8 +155,8 @@ public class RefactoringUnit extends PanacheEntity implements Comparable<Refacto
     public String toString() {
         return String.format(
                 "RefactoringUnit [lineNumber=%s, newPath=%s, mergeRequestIid=%s, shouldRefactor=%s, shouldRefactorProbability=%s, unitName=%s]\n",
-                lineNumber, newPath, refactoryMergeRequest.mergeRequestIid, shouldRefactor,
-                shouldRefactorProbability, unitName);
+                lineNumber, newPath, refactoryMergeRequest == null ? null : refactoryMergeRequest.mergeRequestIid,
+                shouldRefactor, shouldRefactorProbability, unitName);
     }
 
     /*
@@ -100,8 +167,8 @@ public class RefactoringUnit extends PanacheEntity implements Comparable<Refacto
 
     @Override
     public int hashCode() {
-        return Objects.hash(input, lineNumber, model, newPath, oldPath, refactoryMergeRequest, shouldRefactor,
-                shouldRefactorProbability, unitName, wasRecommended);
+        return 31 * Arrays.hashCode(input) + Objects.hash(lineNumber, model, newPath, oldPath, refactoryMergeRequest,
+                shouldRefactor, shouldRefactorProbability, unitName, wasRecommended);
     }
 
     /*
@@ -122,7 +189,7 @@ public class RefactoringUnit extends PanacheEntity implements Comparable<Refacto
             return false;
         }
         RefactoringUnit other = (RefactoringUnit) obj;
-        return Objects.equals(input, other.input) && Objects.equals(lineNumber, other.lineNumber)
+        return Arrays.equals(input, other.input) && Objects.equals(lineNumber, other.lineNumber)
                 && Objects.equals(model, other.model) && Objects.equals(newPath, other.newPath)
                 && Objects.equals(oldPath, other.oldPath)
                 && Objects.equals(refactoryMergeRequest, other.refactoryMergeRequest)
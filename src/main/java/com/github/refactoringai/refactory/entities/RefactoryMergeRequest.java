@@ -1,6 +1,9 @@
 package com.github.refactoringai.refactory.entities;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
@@ -14,7 +17,6 @@ import javax.transaction.Transactional;
 import org.gitlab4j.api.models.MergeRequest;
 
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
-import io.quarkus.panache.common.Parameters;
 
 @Table(name = "merge_request")
 @Entity
@@ -23,6 +25,19 @@ public class RefactoryMergeRequest extends PanacheEntity {
     @Column(name = "merge_request_iid", nullable = false)
     public Long mergeRequestIid;
 
+    /**
+     * The head commit of the merge request that was last analysed.
+     */
+    @Column(name = "head_sha")
+    public String headSha;
+
+    /**
+     * The head commit that is being analysed, {@link #headSha} only moves to it
+     * once the analysis finished.
+     */
+    @Column(name = "analysing_head_sha")
+    public String analysingHeadSha;
+
     @ManyToOne(optional = false)
     @JoinColumn(name = "project_id", nullable = false)
     public RefactoryProject project;
@@ -33,14 +48,39 @@ public class RefactoryMergeRequest extends PanacheEntity {
     public static RefactoryMergeRequest fromGitlabMergeRequest(MergeRequest mergeRequest) {
         var result = new RefactoryMergeRequest();
         result.mergeRequestIid = mergeRequest.getIid();
+        result.analysingHeadSha = mergeRequest.getSha();
         return result;
     }
 
+    /**
+     * Looks up the analysed head commits of the merge requests of a project in a
+     * single query.
+     * 
+     * @param refactoryProject The project of the merge requests
+     * @param iids             The iids of the merge requests to look up
+     * @return The head sha per iid of the processed merge requests, the sha is
+     *         null for merge requests processed before head commits were tracked.
+     *         Merge requests whose first analysis did not finish are left out.
+     */
     @Transactional
-    public static boolean hasMergeRequestBeenProcessed(MergeRequest mergeRequest, RefactoryProject refactoryProject) {
-        var params = Parameters.with("iid", mergeRequest.getIid()).and("project", refactoryProject);
+    public static Map<Long, String> findAnalysedHeadShas(RefactoryProject refactoryProject, Collection<Long> iids) {
+        var analysedHeadShas = new HashMap<Long, String>();
+        if (iids.isEmpty()) {
+            return analysedHeadShas;
+        }
+        getEntityManager()
+                .createQuery("select mr.mergeRequestIid, mr.headSha from RefactoryMergeRequest mr"
+                        + " where mr.project = :project and mr.mergeRequestIid in :iids"
+                        + " and (mr.headSha is not null or mr.analysingHeadSha is null)", Object[].class)
+                .setParameter("project", refactoryProject).setParameter("iids", iids).getResultList()
+                .forEach(row -> analysedHeadShas.put((Long) row[0], (String) row[1]));
+        return analysedHeadShas;
+    }
 
-        return find("mergeRequestIid = :iid and project = :project", params).firstResultOptional().isPresent();
+    @Transactional
+    public static Optional<RefactoryMergeRequest> findByProjectAndIid(RefactoryProject refactoryProject,
+            Long mergeRequestIid) {
+        return find("project = ?1 and mergeRequestIid = ?2", refactoryProject, mergeRequestIid).firstResultOptional();
     }
 
 }
@@ -1,6 +1,7 @@
 package com.github.refactoringai.refactory.entities;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.Optional;
 
 import javax.persistence.CascadeType;
@@ -8,6 +9,8 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.transaction.Transactional;
 
 import org.gitlab4j.api.models.Project;
@@ -24,6 +27,13 @@ public class RefactoryProject extends PanacheEntity {
     @Column(nullable = false)
     public String name;
 
+    /**
+     * The merge requests updated after this moment have not been listed yet.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "merge_requests_listed_at")
+    public Date mergeRequestsListedAt;
+
     @OneToMany(mappedBy = "project", cascade = CascadeType.ALL, orphanRemoval = true)
     public Collection<RefactoryMergeRequest> mergeRequests;
 
@@ -0,0 +1,74 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.github.refactoringai.refactory.CandidateSelector;
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+
+class CandidateSelectorTest {
+
+    private static final Logger LOG = Logger.getLogger(CandidateSelectorTest.class);
+
+    @Test
+    void testKeepsMostProbableCandidates() {
+        var candidateSelector = new CandidateSelector(2, unit -> unit.shouldRefactor);
+        var unlikely = refactoringUnit("unlikely", 0.6f, true);
+        var likely = refactoringUnit("likely", 0.9f, true);
+        var likelier = refactoringUnit("likelier", 0.95f, true);
+        var notRefactor = refactoringUnit("notRefactor", 0.99f, false);
+
+        var rejected = candidateSelector.offer(List.of(unlikely, likely));
+        assertTrue(rejected.isEmpty());
+        rejected = candidateSelector.offer(List.of(notRefactor, likelier));
+
+        assertEquals(List.of(notRefactor, unlikely), rejected);
+        assertEquals(List.of("likely", "likelier"), names(candidateSelector.getCandidates()));
+    }
+
+    @Test
+    void testEmptyWithoutCapacity() {
+        var candidateSelector = new CandidateSelector(0, unit -> true);
+        var unit = refactoringUnit("unit", 0.9f, true);
+
+        assertEquals(List.of(unit), candidateSelector.offer(List.of(unit)));
+        assertTrue(candidateSelector.getCandidates().isEmpty());
+    }
+
+    @Test
+    void testRejectsUnitsWithoutMergeRequest() {
+        // Like RecommendationPolicy, which logs the units it rejects before they are
+        // assigned to their merge request
+        var candidateSelector = new CandidateSelector(1, unit -> {
+            if (!unit.postable) {
+                LOG.debugf("Not recommending %s", unit);
+            }
+            return unit.postable;
+        });
+        var unpostable = refactoringUnit("unpostable", 0.9f, true);
+        unpostable.postable = false;
+
+        assertEquals(List.of(unpostable), candidateSelector.offer(List.of(unpostable)));
+        assertTrue(unpostable.toString().contains("mergeRequestIid=null"));
+    }
+
+    private static List<String> names(List<RefactoringUnit> units) {
+        return units.stream().sorted((a, b) -> Float.compare(a.shouldRefactorProbability, b.shouldRefactorProbability))
+                .map(unit -> unit.unitName).collect(Collectors.toList());
+    }
+
+    private static RefactoringUnit refactoringUnit(String unitName, float probability, boolean shouldRefactor) {
+        var refactoringUnit = new RefactoringUnit();
+        refactoringUnit.unitName = unitName;
+        refactoringUnit.shouldRefactorProbability = probability;
+        refactoringUnit.shouldRefactor = shouldRefactor;
+        return refactoringUnit;
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.refactoringai.refactory.DiffHunks;
+
+import org.junit.jupiter.api.Test;
+
+class DiffHunksTest {
+
+    private static final String DIFF = String.join("\n", //
+            "@@ -10,4 +10,5 @@ public class Foo {", //
+            "     void bar() {", //
+            "-        baz();", //
+            "+        baz(1);", //
+            "+        qux();", //
+            "     }", //
+            " ", //
+            "@@ -40,2 +41,3 @@ public class Foo {", //
+            "     void quux() {", //
+            "+        return;", //
+            "     }", //
+            "");
+
+    @Test
+    void testAddedLinesArePositionedOnTheirNewLine() {
+        var hunks = DiffHunks.parse(DIFF).orElseThrow();
+        var position = hunks.positionFor(11, 11, 11).orElseThrow();
+        assertNull(position.getOldLine());
+        assertEquals(11, position.getNewLine());
+    }
+
+    @Test
+    void testUnchangedLinesArePositionedOnBothLines() {
+        var hunks = DiffHunks.parse(DIFF).orElseThrow();
+        var position = hunks.positionFor(41, 41, 43).orElseThrow();
+        assertEquals(40, position.getOldLine());
+        assertEquals(41, position.getNewLine());
+    }
+
+    @Test
+    void testLinesOutsideTheDiffMoveToTheFirstAddedLineOfTheSpan() {
+        var hunks = DiffHunks.parse(DIFF).orElseThrow();
+        assertEquals(42, hunks.positionFor(30, 30, 45).orElseThrow().getNewLine());
+        assertTrue(hunks.positionFor(20, 20, 30).isEmpty());
+    }
+
+    @Test
+    void testOverlapsChange() {
+        var hunks = DiffHunks.parse(DIFF).orElseThrow();
+        assertTrue(hunks.overlapsChange(1, 11));
+        assertFalse(hunks.overlapsChange(13, 41));
+        assertTrue(hunks.overlapsChange(42, 42));
+    }
+
+    @Test
+    void testMissingDiffHasNoHunks() {
+        assertTrue(DiffHunks.parse("").isEmpty());
+        assertTrue(DiffHunks.parse(null).isEmpty());
+    }
+
+}
@@ -0,0 +1,257 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+
+import com.github.refactoringai.refactory.DiscussionPublisher;
+import com.github.refactoringai.refactory.GitLab;
+import com.github.refactoringai.refactory.RecommendationPolicy;
+import com.github.refactoringai.refactory.entities.Model;
+import com.github.refactoringai.refactory.entities.PendingDiscussion;
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+import com.github.refactoringai.refactory.entities.RefactoryMergeRequest;
+import com.github.refactoringai.refactory.entities.RefactoryProject;
+
+import org.gitlab4j.api.DiscussionsApi;
+import org.gitlab4j.api.GitLabApi;
+import org.gitlab4j.api.GitLabApiException;
+import org.gitlab4j.api.MergeRequestApi;
+import org.gitlab4j.api.ProjectApi;
+import org.gitlab4j.api.models.DiffRef;
+import org.gitlab4j.api.models.Discussion;
+import org.gitlab4j.api.models.Note;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import io.quarkus.test.junit.QuarkusMock;
+import io.quarkus.test.junit.QuarkusTest;
+
+@QuarkusTest
+class DiscussionPublisherTest {
+
+    private static final Long MOCK_GITLAB_PROJECT_ID = 4343L;
+    private static final Long MOCK_GITLAB_MERGE_REQUEST_IID = 146L;
+    private static final String MOCK_GIT_SHA = "cd03f7c87ef640f7ef06c965ad1963e0b10899bf";
+    private static final String FIRST_BODY = "Consider refactoring first";
+    private static final String SECOND_BODY = "Consider refactoring second";
+
+    @Inject
+    DiscussionPublisher discussionPublisher;
+
+    @Inject
+    RecommendationPolicy recommendationPolicy;
+
+    @Inject
+    UserTransaction userTransaction;
+
+    private DiscussionsApi discussionsApiMock;
+
+    private Model model;
+    private RefactoryMergeRequest refactoryMergeRequest;
+
+    @BeforeEach
+    void setupGitLabAndOutbox() {
+        // The same mocks as the smoke test, GitLab itself is real so the lookup of
+        // attempted discussions is covered
+        var gitlabApiMock = Mockito.mock(GitLabApi.class);
+        Mockito.when(gitlabApiMock.getProjectApi()).thenReturn(Mockito.mock(ProjectApi.class));
+        Mockito.when(gitlabApiMock.getMergeRequestApi()).thenReturn(Mockito.mock(MergeRequestApi.class));
+        discussionsApiMock = Mockito.mock(DiscussionsApi.class);
+        Mockito.when(gitlabApiMock.getDiscussionsApi()).thenReturn(discussionsApiMock);
+        QuarkusMock.installMockForType(new GitLab(gitlabApiMock, "https://gitjab.com", recommendationPolicy, 1),
+                GitLab.class);
+
+        inTransaction(() -> {
+            var refactoryProject = new RefactoryProject();
+            refactoryProject.gitlabId = MOCK_GITLAB_PROJECT_ID;
+            refactoryProject.name = "outboxproject";
+            refactoryProject.persist();
+            refactoryMergeRequest = new RefactoryMergeRequest();
+            refactoryMergeRequest.mergeRequestIid = MOCK_GITLAB_MERGE_REQUEST_IID;
+            refactoryMergeRequest.headSha = MOCK_GIT_SHA;
+            refactoryMergeRequest.project = refactoryProject;
+            refactoryMergeRequest.persist();
+            model = new Model();
+            model.id = UUID.randomUUID();
+            model.refactoringType = "Extract Method";
+            model.trainedOnDatasetName = "mock";
+            model.modelPath = "mock.onnx";
+            model.modelType = "mock";
+            model.featureNames = new ArrayList<>(List.of("loc"));
+            model.persist();
+            return null;
+        });
+    }
+
+    @AfterEach
+    void deleteOutbox() {
+        inTransaction(() -> {
+            PendingDiscussion.delete("refactoryMergeRequest.id", refactoryMergeRequest.id);
+            RefactoringUnit.delete("refactoryMergeRequest.id", refactoryMergeRequest.id);
+            RefactoryMergeRequest.deleteById(refactoryMergeRequest.id);
+            RefactoryProject.deleteById(refactoryMergeRequest.project.id);
+            Model.<Model>findById(model.id).delete();
+            return null;
+        });
+    }
+
+    @Test
+    void testRecordsAttemptedDiscussionThatWasPlaced() throws GitLabApiException {
+        var attempted = persistPendingDiscussion(FIRST_BODY, 0, true);
+        Mockito.when(discussionsApiMock.getMergeRequestDiscussions(MOCK_GITLAB_PROJECT_ID,
+                MOCK_GITLAB_MERGE_REQUEST_IID)).thenReturn(List.of(discussion("Another discussion"),
+                        discussion(FIRST_BODY)));
+
+        var discussions = discussionPublisher.publish(refactoryMergeRequest);
+
+        assertTrue(discussions.isEmpty());
+        Mockito.verify(discussionsApiMock, Mockito.never()).createMergeRequestDiscussion(any(), anyLong(), any(),
+                any(), any(), any());
+        assertTrue(wasRecommended(attempted));
+        assertEquals(0L, pendingDiscussions());
+    }
+
+    @Test
+    void testPlacesAttemptedDiscussionThatWasNotPlaced() throws GitLabApiException {
+        var attempted = persistPendingDiscussion(FIRST_BODY, 0, true);
+        Mockito.when(discussionsApiMock.getMergeRequestDiscussions(MOCK_GITLAB_PROJECT_ID,
+                MOCK_GITLAB_MERGE_REQUEST_IID)).thenReturn(List.of(discussion("Another discussion")));
+        Mockito.when(discussionsApiMock.createMergeRequestDiscussion(any(), anyLong(), Mockito.eq(FIRST_BODY), any(),
+                any(), any())).thenReturn(discussion(FIRST_BODY));
+
+        var discussions = discussionPublisher.publish(refactoryMergeRequest);
+
+        assertEquals(1, discussions.size());
+        assertTrue(wasRecommended(attempted));
+        assertEquals(0L, pendingDiscussions());
+    }
+
+    @Test
+    void testDiscardsRefusedDiscussion() throws GitLabApiException {
+        var refused = persistPendingDiscussion(FIRST_BODY, 0, false);
+        var placed = persistPendingDiscussion(SECOND_BODY, 1, false);
+        Mockito.when(discussionsApiMock.createMergeRequestDiscussion(any(), anyLong(), Mockito.eq(FIRST_BODY), any(),
+                any(), any())).thenThrow(new GitLabApiException("line_code can't be blank", 400));
+        Mockito.when(discussionsApiMock.createMergeRequestDiscussion(any(), anyLong(), Mockito.eq(SECOND_BODY), any(),
+                any(), any())).thenReturn(discussion(SECOND_BODY));
+
+        var discussions = discussionPublisher.publish(refactoryMergeRequest);
+
+        assertEquals(1, discussions.size());
+        assertFalse(wasRecommended(refused));
+        assertTrue(wasRecommended(placed));
+        assertEquals(0L, pendingDiscussions());
+    }
+
+    @Test
+    void testKeepsDiscussionOnServerError() throws GitLabApiException {
+        var failed = persistPendingDiscussion(FIRST_BODY, 0, false);
+        var next = persistPendingDiscussion(SECOND_BODY, 1, false);
+        Mockito.when(discussionsApiMock.createMergeRequestDiscussion(any(), anyLong(), Mockito.eq(FIRST_BODY), any(),
+                any(), any())).thenThrow(new GitLabApiException("Internal Server Error", 500));
+
+        var discussions = discussionPublisher.publish(refactoryMergeRequest);
+
+        assertTrue(discussions.isEmpty());
+        assertFalse(wasRecommended(failed));
+        assertFalse(wasRecommended(next));
+        assertEquals(2L, pendingDiscussions());
+        assertTrue(inTransaction(() -> PendingDiscussion.<PendingDiscussion>find("refactoringUnit.id", failed)
+                .firstResult().attempted));
+        assertFalse(inTransaction(() -> PendingDiscussion.<PendingDiscussion>find("refactoringUnit.id", next)
+                .firstResult().attempted));
+    }
+
+    @Test
+    void testKeepsAttemptedDiscussionWhenLookupFails() throws GitLabApiException {
+        var attempted = persistPendingDiscussion(FIRST_BODY, 0, true);
+        Mockito.when(discussionsApiMock.getMergeRequestDiscussions(MOCK_GITLAB_PROJECT_ID,
+                MOCK_GITLAB_MERGE_REQUEST_IID)).thenThrow(new GitLabApiException("Too Many Requests", 429));
+
+        var discussions = discussionPublisher.publish(refactoryMergeRequest);
+
+        assertTrue(discussions.isEmpty());
+        Mockito.verify(discussionsApiMock, Mockito.never()).createMergeRequestDiscussion(any(), anyLong(), any(),
+                any(), any(), any());
+        assertFalse(wasRecommended(attempted));
+        assertEquals(1L, pendingDiscussions());
+    }
+
+    private Long persistPendingDiscussion(String body, int rank, boolean attempted) {
+        return inTransaction(() -> {
+            var refactoringUnit = new RefactoringUnit();
+            refactoringUnit.oldPath = "MockJavaFileRefactor.java";
+            refactoringUnit.newPath = "MockJavaFileRefactor.java";
+            refactoringUnit.lineNumber = 10 + rank;
+            refactoringUnit.shouldRefactor = true;
+            refactoringUnit.shouldRefactorProbability = 0.9f;
+            refactoringUnit.wasRecommended = false;
+            refactoringUnit.refactoryMergeRequest = refactoryMergeRequest;
+            refactoringUnit.model = model;
+            refactoringUnit.unitName = "mock/" + rank;
+            refactoringUnit.persist();
+
+            var diffRef = new DiffRef();
+            diffRef.setBaseSha(MOCK_GIT_SHA);
+            diffRef.setStartSha(MOCK_GIT_SHA);
+            diffRef.setHeadSha(MOCK_GIT_SHA);
+            var pendingDiscussion = PendingDiscussion.fromRefactoringUnit(refactoringUnit, diffRef, body, rank);
+            pendingDiscussion.attempted = attempted;
+            pendingDiscussion.persist();
+            return refactoringUnit.id;
+        });
+    }
+
+    private boolean wasRecommended(Long refactoringUnitId) {
+        return inTransaction(() -> RefactoringUnit.<RefactoringUnit>findById(refactoringUnitId).wasRecommended);
+    }
+
+    private long pendingDiscussions() {
+        return inTransaction(() -> PendingDiscussion.count("refactoryMergeRequest.id", refactoryMergeRequest.id));
+    }
+
+    private static Discussion discussion(String body) {
+        var note = new Note();
+        note.setBody(body);
+        var discussion = new Discussion();
+        discussion.setNotes(List.of(note));
+        return discussion;
+    }
+
+    private <T> T inTransaction(Supplier<T> work) {
+        try {
+            userTransaction.begin();
+            T result;
+            try {
+                result = work.get();
+            } catch (RuntimeException e) {
+                userTransaction.rollback();
+                throw e;
+            }
+            userTransaction.commit();
+            return result;
+        } catch (NotSupportedException | SystemException | RollbackException | HeuristicMixedException
+                | HeuristicRollbackException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
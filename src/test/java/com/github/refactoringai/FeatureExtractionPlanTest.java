@@ -0,0 +1,227 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mauricioaniche.ck.CK;
+import com.github.mauricioaniche.ck.CKClassResult;
+import com.github.mauricioaniche.ck.CKMethodResult;
+import com.github.refactoringai.refactory.ClassMetrics;
+import com.github.refactoringai.refactory.ClassMetrics.MethodMetrics;
+import com.github.refactoringai.refactory.FeatureExtractionPlan;
+import com.github.refactoringai.refactory.FeatureMatrix;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Compares the plan to the extraction that converted every CK result to a map
+ * with Jackson and looked the features up by name.
+ */
+class FeatureExtractionPlanTest {
+
+    private static final List<String> PREFIXES_TO_REMOVE = List.of("class", "method");
+    /**
+     * Some of the features of the test model, the method has no sub classes of its
+     * own and takes them from its class.
+     */
+    private static final List<String> MODEL_FEATURE_NAMES = List.of("classCbo", "classLoc", "classWmc",
+            "classRfc", "classLCC", "classTCC", "classSubClassesQty", "isInnerClass", "methodLoc", "methodWmc",
+            "methodMaxNestedBlocks", "methodParametersQty", "methodSubClassesQty");
+    private static final String MOCK_SOURCE = String.join("\n", //
+            "import java.util.List;", //
+            "", //
+            "public class Mock {", //
+            "    private int count;", //
+            "    private List<String> names;", //
+            "", //
+            "    public int increment(int by) {", //
+            "        if (by > 0) {", //
+            "            for (int i = 0; i < by; i++) {", //
+            "                count++;", //
+            "            }", //
+            "        }", //
+            "        return count;", //
+            "    }", //
+            "", //
+            "    public boolean hasName(String name) {", //
+            "        return names.contains(name) || name.isEmpty();", //
+            "    }", //
+            "", //
+            "    class Inner {", //
+            "        void run() {", //
+            "            increment(1);", //
+            "        }", //
+            "    }", //
+            "}", //
+            "");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path sourcePath;
+
+    private List<CKClassResult> ckClassResults;
+
+    @BeforeEach
+    void analyseMockSource() throws IOException {
+        Files.writeString(sourcePath.resolve("Mock.java"), MOCK_SOURCE);
+        var results = new ArrayList<CKClassResult>();
+        new CK(false, 0, true).calculate(sourcePath, results::add, Paths.get("Mock.java"));
+        ckClassResults = results;
+        assertEquals(2, ckClassResults.size());
+    }
+
+    @Test
+    void testModelFeaturesMatchMapExtraction() {
+        assertMatchesMapExtraction(MODEL_FEATURE_NAMES);
+    }
+
+    @Test
+    void testAllFeaturesMatchMapExtraction() {
+        // Every numeric property either extraction knows of, the method properties
+        // are missing in class rows
+        var featureNames = new TreeSet<String>();
+        for (var ckClassResult : ckClassResults) {
+            featureNames.addAll(ckResultToMap(ckClassResult).keySet());
+            ckClassResult.getMethods().forEach(method -> featureNames.addAll(ckResultToMap(method).keySet()));
+        }
+
+        assertMatchesMapExtraction(List.copyOf(featureNames));
+    }
+
+    @Test
+    void testSkipsUnknownFeature() {
+        var featureNames = new ArrayList<>(MODEL_FEATURE_NAMES);
+        featureNames.add("classUnknownQty");
+        var plan = FeatureExtractionPlan.compile(featureNames);
+        var features = new FeatureMatrix(featureNames.size());
+
+        for (var ckClassResult : ckClassResults) {
+            var classMetrics = ClassMetrics.of(ckClassResult);
+            assertFalse(plan.addClassRow(features, classMetrics).isPresent());
+            classMetrics.methods
+                    .forEach(method -> assertFalse(plan.addMethodRow(features, classMetrics, method).isPresent()));
+        }
+        assertEquals(0, features.getRows());
+    }
+
+    private void assertMatchesMapExtraction(List<String> featureNames) {
+        var plan = FeatureExtractionPlan.compile(featureNames);
+        var features = new FeatureMatrix(featureNames.size());
+        var classRows = 0;
+        var methodRows = 0;
+
+        for (var ckClassResult : ckClassResults) {
+            var classMetrics = ClassMetrics.of(ckClassResult);
+            var expected = toRawSample(featureNames, ckClassResult);
+            var row = plan.addClassRow(features, classMetrics);
+            assertEquals(expected.isPresent(), row.isPresent(), ckClassResult.getClassName());
+            if (row.isPresent()) {
+                assertArrayEquals(expected.get(), features.getRow(row.getAsInt()), ckClassResult.getClassName());
+                classRows++;
+            }
+
+            for (var ckMethodResult : ckClassResult.getMethods()) {
+                var methodMetrics = methodMetrics(classMetrics, ckMethodResult);
+                expected = toRawSample(featureNames, ckClassResult, ckMethodResult);
+                row = plan.addMethodRow(features, classMetrics, methodMetrics);
+                assertEquals(expected.isPresent(), row.isPresent(), ckMethodResult.getMethodName());
+                if (row.isPresent()) {
+                    assertArrayEquals(expected.get(), features.getRow(row.getAsInt()), ckMethodResult.getMethodName());
+                    methodRows++;
+                }
+            }
+        }
+        assertEquals(classRows + methodRows, features.getRows());
+        assertTrue(methodRows > 0);
+    }
+
+    private static MethodMetrics methodMetrics(ClassMetrics classMetrics, CKMethodResult ckMethodResult) {
+        return classMetrics.methods.stream()
+                .filter(method -> method.methodName.equals(ckMethodResult.getMethodName())
+                        && method.startLine == ckMethodResult.getStartLine())
+                .findFirst().orElseThrow();
+    }
+
+    /**
+     * The extraction as it was before the plan, the value of the last result that
+     * has the feature is used.
+     */
+    private Optional<float[]> toRawSample(List<String> featureNames, Object... ckResults) {
+        var featureNamesN = featureNames.size();
+        var dataset = new float[featureNamesN];
+
+        var maps = Stream.of(ckResults).map(this::ckResultToMap).collect(Collectors.toList());
+
+        featureNames = featureNames.stream()
+                .map(FeatureExtractionPlanTest::changeMachineLearningFeatureNameToCKFeatureName)
+                .collect(Collectors.toList());
+        for (int i = 0; i < featureNamesN; i++) {
+            String featureName = featureNames.get(i);
+            var found = false;
+            for (Map<String, Number> map : maps) {
+                if (map.containsKey(featureName)) {
+                    found = true;
+                    dataset[i] = map.get(featureName).floatValue();
+                }
+            }
+            if (!found) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(dataset);
+    }
+
+    private Map<String, Number> ckResultToMap(Object ckResult) {
+        var objValueMap = objectMapper.convertValue(ckResult, new TypeReference<Map<String, Object>>() {
+        });
+        Map<String, Number> numberMap = new HashMap<>();
+        for (var objValueEntry : objValueMap.entrySet()) {
+            var key = objValueEntry.getKey();
+            var value = objValueEntry.getValue();
+            if (value instanceof Number) {
+                numberMap.put(key, (Number) value);
+            } else if (key.equals("type")) {
+                numberMap.put("isInnerClass", value.equals("innerclass") ? 1f : 0f);
+            }
+        }
+        return numberMap;
+    }
+
+    private static String changeMachineLearningFeatureNameToCKFeatureName(String featureName) {
+        for (String prefix : PREFIXES_TO_REMOVE) {
+            featureName = StringUtils.removeStart(featureName, prefix);
+        }
+
+        if (featureName.equals("LCC")) {
+            return "looseClassCohesion";
+        } else if (featureName.equals("TCC")) {
+            return "tightClassCohesion";
+        } else if (featureName.equals("SubClassesQty")) {
+            return "innerClassesQty";
+        }
+
+        return StringUtils.uncapitalize(featureName);
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.github.refactoringai.refactory.entities.FloatArrayConverter;
+
+import org.junit.jupiter.api.Test;
+
+class FloatArrayConverterTest {
+
+    private final FloatArrayConverter floatArrayConverter = new FloatArrayConverter();
+
+    @Test
+    void testRoundTrip() {
+        var values = new float[] { 0f, -1.5f, 3.25f, Float.MAX_VALUE, Float.MIN_VALUE, Float.NaN };
+
+        var bytes = floatArrayConverter.convertToDatabaseColumn(values);
+
+        assertEquals(values.length * Float.BYTES, bytes.length);
+        assertArrayEquals(values, floatArrayConverter.convertToEntityAttribute(bytes));
+    }
+
+    @Test
+    void testLittleEndian() {
+        // 1.0f is 0x3f800000
+        assertArrayEquals(new byte[] { 0, 0, (byte) 0x80, 0x3f },
+                floatArrayConverter.convertToDatabaseColumn(new float[] { 1f }));
+    }
+
+    @Test
+    void testEmptyAndNull() {
+        assertEquals(0, floatArrayConverter.convertToDatabaseColumn(new float[0]).length);
+        assertEquals(0, floatArrayConverter.convertToEntityAttribute(new byte[0]).length);
+        assertNull(floatArrayConverter.convertToDatabaseColumn(null));
+        assertNull(floatArrayConverter.convertToEntityAttribute(null));
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.github.refactoringai;
+
+import static io.restassured.RestAssured.given;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import com.github.refactoringai.refactory.MergeRequestEventQueue;
+import com.github.refactoringai.refactory.MergeRequestEventQueue.SubmitResult;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.mockito.InjectMock;
+import io.restassured.http.ContentType;
+
+@QuarkusTest
+class GitLabWebhookResourceTest {
+
+    private static final String WEBHOOK_PATH = "/webhooks/gitlab";
+    private static final String WEBHOOK_SECRET = "averysecurewebhooksecret";
+    private static final String MOCK_GIT_SHA = "cd03f7c87ef640f7ef06c965ad1963e0b10899bf";
+
+    @InjectMock
+    MergeRequestEventQueue mergeRequestEventQueue;
+
+    @Test
+    void testQueuesRecordedMergeRequestEvent() throws IOException {
+        Mockito.when(mergeRequestEventQueue.submit(anyLong(), anyLong(), anyString())).thenReturn(SubmitResult.QUEUED);
+
+        given().header("X-Gitlab-Token", WEBHOOK_SECRET).contentType(ContentType.JSON)
+                .body(recordedEvent("merge-request-opened.json")).when().post(WEBHOOK_PATH).then().statusCode(202);
+
+        Mockito.verify(mergeRequestEventQueue).submit(42L, 145L, MOCK_GIT_SHA);
+    }
+
+    @Test
+    void testRejectsInvalidToken() throws IOException {
+        given().header("X-Gitlab-Token", "notthesecret").contentType(ContentType.JSON)
+                .body(recordedEvent("merge-request-opened.json")).when().post(WEBHOOK_PATH).then().statusCode(401);
+
+        Mockito.verifyNoInteractions(mergeRequestEventQueue);
+    }
+
+    private static String recordedEvent(String name) throws IOException {
+        return Files.readString(Paths.get("src/test/resources/webhooks").resolve(name));
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.inject.Inject;
+
+import com.github.refactoringai.refactory.InferenceService;
+import com.github.refactoringai.refactory.LoadedModel;
+import com.github.refactoringai.refactory.ModelRegistry;
+import com.github.refactoringai.refactory.OnnxPredictor;
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import ai.onnxruntime.OrtException;
+import io.quarkus.test.junit.QuarkusMock;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+
+@QuarkusTest
+@TestProfile(InferenceServiceTest.BatchingProfile.class)
+class InferenceServiceTest {
+
+    private static final int BATCH_SIZE = 4;
+
+    public static class BatchingProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            // A wait long enough for every caller of a test to join the batch
+            return Map.of("inference.batching.enabled", "true", "inference.batch.size", String.valueOf(BATCH_SIZE),
+                    "inference.batch.max.wait", "2s", "prediction.cache.enabled", "false");
+        }
+    }
+
+    @Inject
+    InferenceService inferenceService;
+
+    @Inject
+    ModelRegistry modelRegistry;
+
+    /**
+     * The units of every run of the predictor.
+     */
+    private final List<List<RefactoringUnit>> runs = Collections.synchronizedList(new ArrayList<>());
+
+    private List<LoadedModel> loadedModels;
+    private LoadedModel loadedModel;
+
+    @BeforeEach
+    void setupPredictorMock() throws OrtException, IOException {
+        var onnxPredictorMock = Mockito.mock(OnnxPredictor.class);
+        Mockito.doAnswer(invocation -> {
+            List<RefactoringUnit> refactoringUnits = invocation.getArgument(2);
+            runs.add(List.copyOf(refactoringUnits));
+            refactoringUnits.forEach(unit -> unit.shouldRefactor = true);
+            return null;
+        }).when(onnxPredictorMock).predict(any(), any(), any());
+        QuarkusMock.installMockForType(onnxPredictorMock, OnnxPredictor.class);
+        loadedModels = modelRegistry.acquire();
+        loadedModel = loadedModels.get(0);
+    }
+
+    @AfterEach
+    void releaseModels() {
+        loadedModels.forEach(LoadedModel::close);
+    }
+
+    @Test
+    void testBatchesConcurrentCallers() throws InterruptedException, ExecutionException, TimeoutException {
+        var first = refactoringUnits("first", BATCH_SIZE / 2);
+        var second = refactoringUnits("second", BATCH_SIZE / 2);
+
+        var firstPrediction = predictAsync(first);
+        var secondPrediction = predictAsync(second);
+        firstPrediction.get(10, TimeUnit.SECONDS);
+        secondPrediction.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, runs.size());
+        assertEquals(BATCH_SIZE, runs.get(0).size());
+        assertTrue(runs.get(0).containsAll(first) && runs.get(0).containsAll(second));
+        assertTrue(first.stream().allMatch(unit -> unit.shouldRefactor));
+        assertTrue(second.stream().allMatch(unit -> unit.shouldRefactor));
+    }
+
+    @Test
+    void testSkipsUnitsOfInterruptedCaller() throws InterruptedException, OrtException {
+        var interrupted = refactoringUnits("interrupted", 1);
+        var waiting = refactoringUnits("waiting", 1);
+        var interruptedCaller = new Thread(() -> {
+            try {
+                inferenceService.predict(loadedModel, interrupted);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (OrtException oe) {
+                throw new IllegalStateException(oe);
+            }
+        });
+
+        interruptedCaller.start();
+        // Give the caller time to queue its units, the batch waits for more
+        Thread.sleep(200);
+        interruptedCaller.interrupt();
+        interruptedCaller.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(interruptedCaller.isAlive());
+        // Joins the batch of the interrupted caller
+        inferenceService.predict(loadedModel, waiting);
+
+        assertEquals(List.of(waiting), runs);
+        assertNull(interrupted.get(0).shouldRefactor);
+        assertTrue(waiting.get(0).shouldRefactor);
+    }
+
+    private CompletableFuture<Void> predictAsync(List<RefactoringUnit> refactoringUnits) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                inferenceService.predict(loadedModel, refactoringUnits);
+            } catch (OrtException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static List<RefactoringUnit> refactoringUnits(String unitName, int count) {
+        return IntStream.range(0, count).mapToObj(i -> {
+            var refactoringUnit = new RefactoringUnit();
+            refactoringUnit.unitName = unitName + "/" + i;
+            return refactoringUnit;
+        }).collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.github.mauricioaniche.ck.CK;
+import com.github.refactoringai.refactory.ClassMetrics;
+import com.github.refactoringai.refactory.MetricCache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.quarkus.runtime.configuration.MemorySize;
+
+class MetricCacheTest {
+
+    private static final String CK_CONFIGURATION = "ck";
+    private static final MemorySize UNLIMITED = new MemorySize(BigInteger.valueOf(Long.MAX_VALUE));
+    private static final String MOCK_SOURCE = String.join("\n", //
+            "public class Mock {", //
+            "    private int count;", //
+            "", //
+            "    public int increment(int by) {", //
+            "        if (by > 0) {", //
+            "            count += by;", //
+            "        }", //
+            "        return count;", //
+            "    }", //
+            "", //
+            "    class Inner {", //
+            "        void run() {", //
+            "        }", //
+            "    }", //
+            "}", //
+            "");
+
+    @TempDir
+    Path sourcePath;
+
+    @TempDir
+    Path cachePath;
+
+    private List<ClassMetrics> mockClassMetrics;
+
+    @BeforeEach
+    void analyseMockSource() throws IOException {
+        Files.writeString(sourcePath.resolve("Mock.java"), MOCK_SOURCE);
+        var classMetrics = new ArrayList<ClassMetrics>();
+        new CK(false, 0, true).calculate(sourcePath, res -> classMetrics.add(ClassMetrics.of(res)),
+                Paths.get("Mock.java"));
+        classMetrics.sort(Comparator.comparing(metrics -> metrics.className));
+        mockClassMetrics = classMetrics;
+    }
+
+    @Test
+    void testRoundTrip() {
+        var metricCache = new MetricCache(true, Optional.of(cachePath), UNLIMITED);
+        assertFalse(mockClassMetrics.isEmpty());
+
+        metricCache.put(blobId('a'), CK_CONFIGURATION, mockClassMetrics);
+
+        var cached = metricCache.get(blobId('a'), CK_CONFIGURATION).orElseThrow();
+        assertEquals(mockClassMetrics.size(), cached.size());
+        for (var i = 0; i < mockClassMetrics.size(); i++) {
+            var classMetrics = mockClassMetrics.get(i);
+            var cachedClassMetrics = cached.get(i);
+            assertEquals(classMetrics.className, cachedClassMetrics.className);
+            // Compares the raw bits, a metric whose getter gave null has to stay apart from NaN
+            assertArrayEquals(rawBits(classMetrics.values), rawBits(cachedClassMetrics.values));
+            assertEquals(classMetrics.methods.size(), cachedClassMetrics.methods.size());
+            for (var j = 0; j < classMetrics.methods.size(); j++) {
+                var method = classMetrics.methods.get(j);
+                var cachedMethod = cachedClassMetrics.methods.get(j);
+                assertEquals(method.methodName, cachedMethod.methodName);
+                assertEquals(method.startLine, cachedMethod.startLine);
+                assertEquals(method.loc, cachedMethod.loc);
+                assertArrayEquals(rawBits(method.values), rawBits(cachedMethod.values));
+            }
+        }
+        assertTrue(metricCache.get(blobId('a'), "otherck").isEmpty());
+        assertTrue(metricCache.get(blobId('b'), CK_CONFIGURATION).isEmpty());
+    }
+
+    @Test
+    void testBlobIdIsTheGitBlobId() throws IOException {
+        var metricCache = new MetricCache(true, Optional.of(cachePath), UNLIMITED);
+        var file = sourcePath.resolve("Hello.txt");
+        Files.writeString(file, "hello\n");
+
+        // git hash-object of a file containing "hello\n"
+        assertEquals("ce013625030ba8dba906f756967f9e9ca394464a", metricCache.blobId(file));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed(@TempDir Path probePath) throws IOException, InterruptedException {
+        var probe = new MetricCache(true, Optional.of(probePath), UNLIMITED);
+        probe.put(blobId('a'), CK_CONFIGURATION, mockClassMetrics);
+        long entrySize = cacheSize(probePath);
+        // Room for two entries, the third one evicts the least recently used
+        var metricCache = new MetricCache(true, Optional.of(cachePath),
+                new MemorySize(BigInteger.valueOf(2 * entrySize + entrySize / 2)));
+
+        metricCache.put(blobId('a'), CK_CONFIGURATION, mockClassMetrics);
+        Thread.sleep(5);
+        metricCache.put(blobId('b'), CK_CONFIGURATION, mockClassMetrics);
+        Thread.sleep(5);
+        assertTrue(metricCache.get(blobId('a'), CK_CONFIGURATION).isPresent());
+        Thread.sleep(5);
+        metricCache.put(blobId('c'), CK_CONFIGURATION, mockClassMetrics);
+
+        assertTrue(metricCache.get(blobId('a'), CK_CONFIGURATION).isPresent());
+        assertFalse(metricCache.get(blobId('b'), CK_CONFIGURATION).isPresent());
+        assertTrue(metricCache.get(blobId('c'), CK_CONFIGURATION).isPresent());
+        assertEquals(2 * entrySize, cacheSize(cachePath));
+    }
+
+    @Test
+    void testLoadsEntriesOfEarlierRuns() {
+        new MetricCache(true, Optional.of(cachePath), UNLIMITED).put(blobId('a'), CK_CONFIGURATION,
+                mockClassMetrics);
+
+        var metricCache = new MetricCache(true, Optional.of(cachePath), UNLIMITED);
+
+        assertTrue(metricCache.get(blobId('a'), CK_CONFIGURATION).isPresent());
+    }
+
+    private static long cacheSize(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static int[] rawBits(float[] values) {
+        var bits = new int[values.length];
+        for (var i = 0; i < values.length; i++) {
+            bits[i] = Float.floatToRawIntBits(values[i]);
+        }
+        return bits;
+    }
+
+    private static String blobId(char digit) {
+        return String.valueOf(digit).repeat(40);
+    }
+
+}
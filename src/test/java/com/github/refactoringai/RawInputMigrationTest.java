@@ -0,0 +1,192 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+
+import com.github.refactoringai.refactory.RawInputMigration;
+import com.github.refactoringai.refactory.entities.Model;
+import com.github.refactoringai.refactory.entities.RefactoringUnit;
+import com.github.refactoringai.refactory.entities.RefactoryMergeRequest;
+import com.github.refactoringai.refactory.entities.RefactoryProject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.quarkus.hibernate.orm.panache.Panache;
+import io.quarkus.test.junit.QuarkusTest;
+
+@QuarkusTest
+class RawInputMigrationTest {
+
+    private static final String MIGRATED_PATH = "MockJavaFileMigrated.java";
+    private static final String OUTDATED_PATH = "MockJavaFileOutdated.java";
+
+    @Inject
+    RawInputMigration rawInputMigration;
+
+    @Inject
+    UserTransaction userTransaction;
+
+    private Model model;
+    private RefactoryMergeRequest refactoryMergeRequest;
+
+    @BeforeEach
+    void createRawInputTable() {
+        // The layout of the element collection the features were stored in before
+        inTransaction(() -> Panache.getEntityManager()
+                .createNativeQuery("create table raw_input (refactoring_unit_id bigint not null, input real,"
+                        + " input_order integer not null, primary key (refactoring_unit_id, input_order),"
+                        + " foreign key (refactoring_unit_id) references refactoring_unit (id))")
+                .executeUpdate());
+        inTransaction(() -> {
+            var refactoryProject = new RefactoryProject();
+            refactoryProject.gitlabId = 4242L;
+            refactoryProject.name = "rawinputproject";
+            refactoryProject.persist();
+            refactoryMergeRequest = new RefactoryMergeRequest();
+            refactoryMergeRequest.mergeRequestIid = 1L;
+            refactoryMergeRequest.project = refactoryProject;
+            refactoryMergeRequest.persist();
+            model = new Model();
+            model.id = UUID.randomUUID();
+            model.refactoringType = "Extract Method";
+            model.trainedOnDatasetName = "mock";
+            model.modelPath = "mock.onnx";
+            model.modelType = "mock";
+            model.featureNames = new ArrayList<>(List.of("loc", "wmc"));
+            model.persist();
+            return null;
+        });
+    }
+
+    @AfterEach
+    void dropRawInputTable() {
+        inTransaction(() -> Panache.getEntityManager().createNativeQuery("drop table raw_input").executeUpdate());
+        inTransaction(() -> {
+            RefactoringUnit.delete("refactoryMergeRequest.id", refactoryMergeRequest.id);
+            RefactoryMergeRequest.deleteById(refactoryMergeRequest.id);
+            RefactoryProject.deleteById(refactoryMergeRequest.project.id);
+            Model.<Model>findById(model.id).delete();
+            return null;
+        });
+    }
+
+    @Test
+    void testPacksRawInput() {
+        var unpacked = persistUnmigratedUnit(MIGRATED_PATH, new float[] { 2f, 0.5f });
+        var packed = inTransaction(() -> {
+            var refactoringUnit = refactoringUnit(MIGRATED_PATH);
+            refactoringUnit.input = new float[] { 7f, 8f };
+            refactoringUnit.persist();
+            insertRawInput(refactoringUnit.id, new float[] { 1f, 1f });
+            return refactoringUnit.id;
+        });
+
+        assertTrue(rawInputMigration.rawInputTableExists());
+        assertEquals(2, rawInputMigration.migrateBatch());
+        assertEquals(0, rawInputMigration.migrateBatch());
+
+        assertArrayEquals(new float[] { 2f, 0.5f }, packedInput(unpacked));
+        // Units that were packed already keep their input
+        assertArrayEquals(new float[] { 7f, 8f }, packedInput(packed));
+        assertEquals(0L, rawInputRows());
+    }
+
+    @Test
+    void testDeletesRawInputOfOutdatedUnits() {
+        var outdated = persistUnmigratedUnit(OUTDATED_PATH, new float[] { 1f, 2f });
+        var otherPath = persistUnmigratedUnit(MIGRATED_PATH, new float[] { 3f, 4f });
+        var recommended = persistUnmigratedUnit(OUTDATED_PATH, new float[] { 5f, 6f });
+        inTransaction(() -> RefactoringUnit.update("wasRecommended = true where id = ?1", recommended));
+
+        rawInputMigration.deleteRawInput(refactoryMergeRequest, List.of(OUTDATED_PATH));
+
+        assertEquals(4L, rawInputRows());
+        // The bulk delete of the outdated units no longer violates the foreign key
+        inTransaction(() -> RefactoringUnit.delete("id", outdated));
+        assertEquals(2, rawInputMigration.migrateBatch());
+        assertArrayEquals(new float[] { 3f, 4f }, packedInput(otherPath));
+        assertArrayEquals(new float[] { 5f, 6f }, packedInput(recommended));
+    }
+
+    private Long persistUnmigratedUnit(String newPath, float[] input) {
+        var id = inTransaction(() -> {
+            var refactoringUnit = refactoringUnit(newPath);
+            refactoringUnit.persist();
+            return refactoringUnit.id;
+        });
+        assertNull(packedInput(id));
+        inTransaction(() -> insertRawInput(id, input));
+        return id;
+    }
+
+    private RefactoringUnit refactoringUnit(String newPath) {
+        var refactoringUnit = new RefactoringUnit();
+        refactoringUnit.oldPath = newPath;
+        refactoringUnit.newPath = newPath;
+        refactoringUnit.lineNumber = 1;
+        refactoringUnit.shouldRefactor = true;
+        refactoringUnit.shouldRefactorProbability = 0.9f;
+        refactoringUnit.wasRecommended = false;
+        refactoringUnit.refactoryMergeRequest = refactoryMergeRequest;
+        refactoringUnit.model = model;
+        refactoringUnit.unitName = "mock/0";
+        return refactoringUnit;
+    }
+
+    private static int insertRawInput(Long refactoringUnitId, float[] input) {
+        // Inserted in reverse to check the migration keeps the input order
+        for (var i = input.length - 1; i >= 0; i--) {
+            Panache.getEntityManager()
+                    .createNativeQuery("insert into raw_input (refactoring_unit_id, input, input_order)"
+                            + " values (:id, :input, :inputOrder)")
+                    .setParameter("id", refactoringUnitId).setParameter("input", input[i])
+                    .setParameter("inputOrder", i).executeUpdate();
+        }
+        return input.length;
+    }
+
+    private float[] packedInput(Long refactoringUnitId) {
+        return inTransaction(() -> RefactoringUnit.<RefactoringUnit>findById(refactoringUnitId).input);
+    }
+
+    private long rawInputRows() {
+        return inTransaction(() -> ((Number) Panache.getEntityManager()
+                .createNativeQuery("select count(*) from raw_input").getSingleResult()).longValue());
+    }
+
+    private <T> T inTransaction(Supplier<T> work) {
+        try {
+            userTransaction.begin();
+            T result;
+            try {
+                result = work.get();
+            } catch (RuntimeException e) {
+                userTransaction.rollback();
+                throw e;
+            }
+            userTransaction.commit();
+            return result;
+        } catch (NotSupportedException | SystemException | RollbackException | HeuristicMixedException
+                | HeuristicRollbackException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
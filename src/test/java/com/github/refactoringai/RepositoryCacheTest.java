@@ -0,0 +1,102 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import com.github.refactoringai.refactory.RepositoryCache;
+
+import org.gitlab4j.api.models.Project;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.quarkus.runtime.configuration.MemorySize;
+
+class RepositoryCacheTest {
+
+    private static final int CLONE_SIZE = 100;
+    /**
+     * Room for one clone, not for two.
+     */
+    private static final MemorySize BUDGET = new MemorySize(BigInteger.valueOf(CLONE_SIZE * 3 / 2));
+
+    @TempDir
+    Path cachePath;
+
+    @Test
+    void testEvictsLeastRecentlyUsed() throws IOException {
+        var repositoryCache = new RepositoryCache(Optional.empty(), Optional.of(cachePath), BUDGET);
+
+        var older = useProject(repositoryCache, 1L);
+        assertTrue(Files.exists(older));
+        var newer = useProject(repositoryCache, 2L);
+
+        assertFalse(Files.exists(older));
+        assertTrue(Files.exists(newer));
+    }
+
+    @Test
+    void testKeepsLeasedRepository() throws IOException {
+        var repositoryCache = new RepositoryCache(Optional.empty(), Optional.of(cachePath), BUDGET);
+        var leasedClone = useProject(repositoryCache, 1L);
+
+        try (var lease = repositoryCache.lease(project(1L))) {
+            assertEquals(leasedClone, lease.getPath());
+            // Over budget while the least recently used clone is leased, the other one goes
+            var other = useProject(repositoryCache, 2L);
+
+            assertTrue(Files.exists(leasedClone));
+            assertFalse(Files.exists(other));
+        }
+        assertTrue(Files.exists(leasedClone));
+    }
+
+    @Test
+    void testLoadsClonesOfEarlierRuns() throws IOException {
+        var older = useProject(new RepositoryCache(Optional.empty(), Optional.of(cachePath), BUDGET), 1L);
+
+        var newer = useProject(new RepositoryCache(Optional.empty(), Optional.of(cachePath), BUDGET), 2L);
+
+        assertFalse(Files.exists(older));
+        assertTrue(Files.exists(newer));
+    }
+
+    @Test
+    void testLeavesProjectsPathAlone() throws IOException {
+        var projectsPath = cachePath.resolve("projects");
+        var repositoryCache = new RepositoryCache(Optional.of(projectsPath), Optional.of(cachePath), BUDGET);
+
+        try (var lease = repositoryCache.lease(project(1L))) {
+            assertEquals(projectsPath.resolve("project1"), lease.getPath());
+        }
+        assertFalse(Files.exists(projectsPath));
+    }
+
+    /**
+     * Leases the repository of a project and clones a file of {@link #CLONE_SIZE}
+     * bytes into it.
+     *
+     * @return The location of the clone
+     */
+    private static Path useProject(RepositoryCache repositoryCache, Long projectId) throws IOException {
+        try (var lease = repositoryCache.lease(project(projectId))) {
+            Files.createDirectories(lease.getPath());
+            Files.write(lease.getPath().resolve("clone"), new byte[CLONE_SIZE]);
+            return lease.getPath();
+        }
+    }
+
+    private static Project project(Long projectId) {
+        var project = new Project();
+        project.setId(projectId);
+        project.setPath("project" + projectId);
+        return project;
+    }
+
+}
@@ -4,8 +4,6 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 
-import java.io.IOException;
-import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -14,7 +12,6 @@ import javax.inject.Inject;
 
 import com.github.refactoringai.refactory.Poller;
 
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.gitlab4j.api.DiscussionsApi;
 import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
@@ -29,7 +26,6 @@ import org.gitlab4j.api.models.Project;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
-import ai.onnxruntime.OrtException;
 import io.quarkus.test.junit.QuarkusMock;
 import io.quarkus.test.junit.QuarkusTest;
 
@@ -50,13 +46,10 @@ class SmokeTest {
      * 
      * 
      * @throws GitLabApiException
-     * @throws IOException
-     * @throws GitAPIException
-     * @throws OrtException
-     * @throws URISyntaxException
+     * @throws InterruptedException
      */
     @Test
-    void testRefactors() throws GitLabApiException, IOException, GitAPIException, OrtException, URISyntaxException {
+    void testRefactors() throws GitLabApiException, InterruptedException {
         final Path MOCK_REFACTOR_PATH = Paths.get("MockJavaFileRefactor.java");
         System.out.println(MOCK_REFACTOR_PATH.toAbsolutePath().toString());
         setupAndInstallGitLabApiMock(MOCK_REFACTOR_PATH, MOCK_GIT_SHA);
@@ -65,7 +58,7 @@ class SmokeTest {
     }
 
     @Test
-    void testNoRefactors() throws GitLabApiException, IOException, GitAPIException, OrtException, URISyntaxException {
+    void testNoRefactors() throws GitLabApiException, InterruptedException {
         final Path MOCK_NO_REFACTOR_PATH = Paths.get("MockJavaFileNoRefactor.java");
         setupAndInstallGitLabApiMock(MOCK_NO_REFACTOR_PATH, MOCK_GIT_SHA);
         List<Discussion> gitlabDiscussions = poller.poll();
@@ -0,0 +1,109 @@
+package com.github.refactoringai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import com.github.refactoringai.refactory.RepositoryManager;
+import com.github.refactoringai.refactory.WorkingCopy;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+
+/**
+ * The working trees of {@link RepositoryManager} in the worktree checkout mode.
+ */
+@QuarkusTest
+@TestProfile(WorktreePoolTest.WorktreeProfile.class)
+class WorktreePoolTest {
+
+    private static final Long MOCK_GITLAB_MERGE_REQUEST_IID = 145L;
+    private static final String MOCK_FILE = "MockJavaFile.java";
+    private static final String REMOVED_FILE = "MockJavaFileRemoved.java";
+
+    public static class WorktreeProfile implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("git.checkout.mode", "WORKTREE", "git.worktree.pool.size", "2");
+        }
+    }
+
+    @Inject
+    RepositoryManager repositoryManager;
+
+    @TempDir
+    Path tempPath;
+
+    private Path repositoryPath;
+    private String firstSha;
+    private String secondSha;
+
+    @BeforeEach
+    void createRepository() throws IOException, GitAPIException {
+        repositoryPath = tempPath.resolve("repository");
+        try (var git = Git.init().setDirectory(repositoryPath.toFile()).call()) {
+            Files.writeString(repositoryPath.resolve(MOCK_FILE), "class MockJavaFile {}\n");
+            Files.writeString(repositoryPath.resolve(REMOVED_FILE), "class MockJavaFileRemoved {}\n");
+            git.add().addFilepattern(".").call();
+            firstSha = git.commit().setMessage("First").call().getName();
+            Files.writeString(repositoryPath.resolve(MOCK_FILE), "class MockJavaFile { int changed; }\n");
+            git.rm().addFilepattern(REMOVED_FILE).call();
+            git.add().addFilepattern(".").call();
+            secondSha = git.commit().setMessage("Second").call().getName();
+        }
+    }
+
+    @Test
+    void testReusesReleasedWorktree() throws IOException, GitAPIException, InterruptedException {
+        Path firstWorktree;
+        try (var workingCopy = checkout(firstSha)) {
+            firstWorktree = workingCopy.getPath();
+            assertEquals("class MockJavaFile {}\n", Files.readString(firstWorktree.resolve(MOCK_FILE)));
+        }
+
+        try (var workingCopy = checkout(secondSha)) {
+            assertEquals(firstWorktree, workingCopy.getPath());
+            assertEquals("class MockJavaFile { int changed; }\n",
+                    Files.readString(workingCopy.getPath().resolve(MOCK_FILE)));
+            assertFalse(Files.exists(workingCopy.getPath().resolve(REMOVED_FILE)));
+        }
+    }
+
+    @Test
+    void testReusesMostRecentlyReleasedWorktree() throws IOException, GitAPIException, InterruptedException {
+        Path releasedFirst;
+        Path releasedLast;
+        try (var first = checkout(firstSha); var second = checkout(secondSha)) {
+            // Worktrees in use are not shared
+            assertNotEquals(first.getPath(), second.getPath());
+            releasedLast = first.getPath();
+            releasedFirst = second.getPath();
+        }
+
+        try (var workingCopy = checkout(secondSha)) {
+            assertEquals(releasedLast, workingCopy.getPath());
+            assertNotEquals(releasedFirst, workingCopy.getPath());
+        }
+    }
+
+    private WorkingCopy checkout(String sha) throws IOException, GitAPIException, InterruptedException {
+        return repositoryManager.checkout(repositoryPath, repositoryPath.toUri().toString(), sha,
+                MOCK_GITLAB_MERGE_REQUEST_IID, List.of(Path.of(MOCK_FILE)));
+    }
+
+}